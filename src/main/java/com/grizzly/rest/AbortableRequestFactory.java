@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * A request factory which hands the Apache request it creates to the Handle registered by the current thread,
+ * so another thread can abort it and release its connection.
+ */
+class AbortableRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    private static final ThreadLocal<Handle> currentHandle = new ThreadLocal<>();
+
+    AbortableRequestFactory(HttpClient httpClient) {
+        super(httpClient);
+    }
+
+    /**
+     * Registers the handle which receives the requests created by the current thread.
+     * @param handle the handle, or null to stop registering.
+     */
+    static void setCurrentHandle(Handle handle) {
+        if(handle == null) currentHandle.remove();
+        else currentHandle.set(handle);
+    }
+
+    /**
+     * @return the handle registered by the current thread, or null if there is none.
+     */
+    static Handle getCurrentHandle() {
+        return currentHandle.get();
+    }
+
+    /**
+     * @return true if the current thread registered a handle which was aborted, IE: the losing request of a hedge.
+     */
+    static boolean isCurrentRequestAborted() {
+        Handle handle = currentHandle.get();
+        return handle != null && handle.isAborted();
+    }
+
+    @Override
+    protected void postProcessHttpRequest(HttpUriRequest request) {
+        Handle handle = currentHandle.get();
+        if(handle != null) handle.attach(request);
+    }
+
+    /**
+     * Aborts the request attached to it, even if the request is attached after the abort. Aborting a handle aborts
+     * its children too. An asynchronous request is attached as the Future of its response, which is cancelled.
+     */
+    static final class Handle {
+
+        private HttpUriRequest request;
+        private Future<?> response;
+        private boolean aborted = false;
+        private List<Handle> children;
+
+        /**
+         * @return a new handle, aborted when this one is.
+         */
+        Handle createChild() {
+            Handle child = new Handle();
+            synchronized (this) {
+                if(!aborted){
+                    if(children == null) children = new ArrayList<>();
+                    children.add(child);
+                    return child;
+                }
+            }
+            child.abort();
+            return child;
+        }
+
+        synchronized void attach(HttpUriRequest request) {
+            this.request = request;
+            if(aborted) request.abort();
+        }
+
+        synchronized void attach(Future<?> response) {
+            this.response = response;
+            if(aborted) response.cancel(true);
+        }
+
+        void abort() {
+            HttpUriRequest toAbort;
+            Future<?> toCancel;
+            List<Handle> childrenToAbort;
+            synchronized (this) {
+                aborted = true;
+                toAbort = request;
+                toCancel = response;
+                childrenToAbort = children;
+                children = null;
+            }
+            if(toAbort != null) toAbort.abort();
+            if(toCancel != null) toCancel.cancel(true);
+            if(childrenToAbort != null){
+                for(Handle child : childrenToAbort){
+                    child.abort();
+                }
+            }
+        }
+
+        synchronized boolean isAborted() {
+            return aborted;
+        }
+    }
+}
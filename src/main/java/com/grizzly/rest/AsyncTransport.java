@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.pool.PoolStats;
+import org.springframework.http.client.AsyncClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A non-blocking transport built on Apache HttpAsyncClient. Its requests share a few I/O threads running an event
+ * loop, so a call waiting for its response doesn't hold a thread: thousands of requests in flight need a handful of
+ * threads instead of one each. Responses are buffered in memory before being read. The client is created lazily
+ * and started on the first request; the settings apply to clients created after the call, except the connection
+ * limits.
+ */
+public class AsyncTransport {
+
+    private static final AtomicInteger transportNumber = new AtomicInteger(1);
+
+    private int ioThreads = Runtime.getRuntime().availableProcessors();
+    private int maxTotalConnections = 1000;
+    private int maxConnectionsPerRoute = 100;
+    private int connectTimeout = 60000;
+    private int readTimeout = 60000;
+    private final String threadNamePrefix;
+
+    private PoolingNHttpClientConnectionManager connectionManager;
+    private CloseableHttpAsyncClient httpClient;
+    private HttpComponentsAsyncClientHttpRequestFactory requestFactory;
+
+    public AsyncTransport() {
+        this("EasyRest-nio-" + transportNumber.getAndIncrement());
+    }
+
+    /**
+     * @param threadNamePrefix the prefix of the names of the I/O threads.
+     */
+    public AsyncTransport(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * Sets the amount of I/O threads. One per core is usually enough, as they never block.
+     * @param ioThreads a positive number.
+     */
+    public synchronized void setIoThreads(int ioThreads) {
+        if(ioThreads<1){
+            throw new IllegalArgumentException("The amount of I/O threads must be greater than zero");
+        }
+        this.ioThreads = ioThreads;
+    }
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * Sets the maximum amount of open connections, for all the hosts.
+     * @param maxTotalConnections a positive number.
+     */
+    public synchronized void setMaxTotalConnections(int maxTotalConnections) {
+        if(maxTotalConnections<1){
+            throw new IllegalArgumentException("The connection limit must be greater than zero");
+        }
+        this.maxTotalConnections = maxTotalConnections;
+        if(connectionManager!=null) connectionManager.setMaxTotal(maxTotalConnections);
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the maximum amount of open connections to a single host. Requests beyond it wait for a connection
+     * without holding a thread.
+     * @param maxConnectionsPerRoute a positive number.
+     */
+    public synchronized void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if(maxConnectionsPerRoute<1){
+            throw new IllegalArgumentException("The connection limit must be greater than zero");
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        if(connectionManager!=null) connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Sets how long to wait for a connection to be established.
+     * @param miliseconds the timeout, in miliseconds, or 0 to wait forever.
+     */
+    public synchronized void setConnectTimeout(int miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The connect timeout can't be negative");
+        }
+        this.connectTimeout = miliseconds;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * Sets how long a connection can stay without receiving data while a response is expected.
+     * @param miliseconds the timeout, in miliseconds, or 0 to wait forever.
+     */
+    public synchronized void setReadTimeout(int miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The read timeout can't be negative");
+        }
+        this.readTimeout = miliseconds;
+    }
+
+    /**
+     * Returns the factory of the asynchronous requests, creating and starting the client on the first call.
+     * @throws IOException if the I/O reactor can't be created.
+     */
+    synchronized AsyncClientHttpRequestFactory getRequestFactory() throws IOException {
+        if(requestFactory == null){
+            ThreadFactory threadFactory = new ThreadFactory() {
+
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadNamePrefix + "-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+            IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                    .setIoThreadCount(ioThreads)
+                    .setConnectTimeout(connectTimeout)
+                    .setSoTimeout(readTimeout)
+                    .build();
+            connectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(reactorConfig, threadFactory));
+            connectionManager.setMaxTotal(maxTotalConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+            httpClient = HttpAsyncClients.custom()
+                    .setConnectionManager(connectionManager)
+                    .setThreadFactory(threadFactory)
+                    .setDefaultRequestConfig(RequestConfig.custom()
+                            .setConnectTimeout(connectTimeout)
+                            .setSocketTimeout(readTimeout)
+                            .build())
+                    .build();
+            httpClient.start();
+            requestFactory = new HttpComponentsAsyncClientHttpRequestFactory(httpClient);
+        }
+        return requestFactory;
+    }
+
+    /**
+     * Returns the statistics of the transport's connections.
+     * @return a PoolStats with the leased, pending and available connections.
+     */
+    public synchronized PoolStats getTotalStats() {
+        if(connectionManager == null) return new PoolStats(0, 0, 0, maxTotalConnections);
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Closes the client, its connections and its I/O threads. Requests in flight fail. A new client will be
+     * created if the transport is used again.
+     */
+    public synchronized void shutdown() {
+        if(requestFactory != null){
+            try {
+                // closes the asynchronous client and the blocking one Spring creates for the factory
+                requestFactory.destroy();
+            } catch (Exception e) {
+                RestLogger.getLogger(RestLogger.POOL).warn("The asynchronous transport can't be closed", e);
+            }
+            httpClient = null;
+            connectionManager = null;
+            requestFactory = null;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+/**
+ * Defines how long a response is considered fresh.
+ */
+public enum CacheControlPolicy {
+
+    /**
+     * Every response is fresh for the cacheTime of the call. The server's hints are ignored.
+     */
+    FIXED,
+
+    /**
+     * The server's Cache-Control and Expires headers decide. The cacheTime of the call is used when the server
+     * doesn't send them.
+     */
+    SERVER,
+
+    /**
+     * Same as SERVER, but responses are never fresh for longer than the cacheTime of the call.
+     */
+    SERVER_CAPPED;
+
+    /**
+     * Computes the time to live of a response.
+     * @param directives the caching directives of the response.
+     * @param cacheTime the cacheTime of the call, in miliseconds.
+     * @return the time to live, in miliseconds.
+     */
+    long getTimeToLive(CacheDirectives directives, long cacheTime) {
+        long serverTimeToLive = directives.getTimeToLive();
+        switch (this) {
+            case SERVER:
+                return serverTimeToLive >= 0 ? serverTimeToLive : cacheTime;
+            case SERVER_CAPPED:
+                return serverTimeToLive >= 0 ? Math.min(serverTimeToLive, cacheTime) : cacheTime;
+            default:
+                return cacheTime;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.HttpHeaders;
+
+import java.util.Locale;
+
+/**
+ * The caching directives of a response: Cache-Control (max-age, s-maxage, no-store, no-cache,
+ * stale-while-revalidate and stale-if-error) and Expires.
+ */
+final class CacheDirectives {
+
+    private boolean noStore = false;
+    private boolean noCache = false;
+    private long maxAge = -1;
+    private long sharedMaxAge = -1;
+    private long staleWhileRevalidate = 0;
+    private long staleIfError = 0;
+    private long expires = -1;
+
+    private CacheDirectives() {
+    }
+
+    /**
+     * Reads the directives of a response.
+     * @param headers the response headers.
+     * @param now the current time, in miliseconds since the epoch.
+     * @return the directives. Missing directives get their default value.
+     */
+    static CacheDirectives fromHeaders(HttpHeaders headers, long now) {
+        CacheDirectives directives = new CacheDirectives();
+        if(headers == null) return directives;
+
+        String cacheControl = headers.getFirst(HttpHeaders.CACHE_CONTROL);
+        if(cacheControl != null){
+            for(String directive : cacheControl.split(",")){
+                String[] parts = directive.trim().split("=", 2);
+                String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+                long seconds = parts.length > 1 ? parseSeconds(parts[1]) : -1;
+
+                if(name.equals("no-store")) directives.noStore = true;
+                else if(name.equals("no-cache")) directives.noCache = true;
+                else if(name.equals("max-age")) directives.maxAge = seconds;
+                else if(name.equals("s-maxage")) directives.sharedMaxAge = seconds;
+                else if(name.equals("stale-while-revalidate")) directives.staleWhileRevalidate = Math.max(seconds, 0);
+                else if(name.equals("stale-if-error")) directives.staleIfError = Math.max(seconds, 0);
+            }
+        }
+
+        if(headers.getFirst(HttpHeaders.EXPIRES) != null){
+            try {
+                long date = headers.getDate();
+                directives.expires = Math.max(headers.getExpires() - (date > 0 ? date : now), 0);
+            } catch (IllegalArgumentException e) {
+                // An invalid date, IE: "Expires: 0", means already expired.
+                directives.expires = 0;
+            }
+        }
+        return directives;
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Long.parseLong(value.trim().replace("\"", "")) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    boolean isNoStore() {
+        return noStore;
+    }
+
+    /**
+     * Returns the time to live the server asked for. no-cache gives zero, then max-age, s-maxage and Expires are
+     * checked in that order.
+     * @return the time to live, in miliseconds, or -1 if the server didn't say it.
+     */
+    long getTimeToLive() {
+        if(noCache) return 0;
+        if(maxAge >= 0) return maxAge;
+        if(sharedMaxAge >= 0) return sharedMaxAge;
+        return expires;
+    }
+
+    /**
+     * @return how long a stale response can be served while it is refreshed, in miliseconds.
+     */
+    long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    /**
+     * @return how long a stale response can be served when the server fails, in miliseconds.
+     */
+    long getStaleIfError() {
+        return staleIfError;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.HttpHeaders;
+
+/**
+ * Data stored next to a cached response, needed to revalidate it with the server once it has expired. It is kept
+ * in the memory cache and, for the disk cache, in a ".meta" file next to the cached entity. When the call uses a
+ * server driven CacheControlPolicy, the freshness of the response is stored here too.
+ */
+public class CacheMetadata {
+
+    private String eTag;
+    private String lastModified;
+    private long expiresAt = 0;
+    private long staleWhileRevalidate = 0;
+    private long staleIfError = 0;
+
+    public CacheMetadata() {
+    }
+
+    /**
+     * Reads the validators of a response.
+     * @param headers the response headers.
+     * @return the metadata, or null if the response had neither an ETag nor a Last-Modified header.
+     */
+    static CacheMetadata fromHeaders(HttpHeaders headers) {
+        if(headers == null) return null;
+        String eTag = headers.getFirst(HttpHeaders.ETAG);
+        String lastModified = headers.getFirst(HttpHeaders.LAST_MODIFIED);
+        if(eTag == null && lastModified == null) return null;
+
+        CacheMetadata metadata = new CacheMetadata();
+        metadata.setETag(eTag);
+        metadata.setLastModified(lastModified);
+        return metadata;
+    }
+
+    /**
+     * Builds the conditional headers to revalidate the cached response.
+     * @return an HttpHeaders with If-None-Match and/or If-Modified-Since.
+     */
+    HttpHeaders toConditionalHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        if(eTag != null) headers.set(HttpHeaders.IF_NONE_MATCH, eTag);
+        if(lastModified != null) headers.set(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+        return headers;
+    }
+
+    /**
+     * Combines these validators with the ones of a newer response, which take precedence.
+     * @param newer the validators of the newer response. Can be null.
+     * @return the combined metadata.
+     */
+    CacheMetadata renewWith(CacheMetadata newer) {
+        if(newer == null) return this;
+        CacheMetadata renewed = new CacheMetadata();
+        renewed.setETag(newer.getETag() != null ? newer.getETag() : eTag);
+        renewed.setLastModified(newer.getLastModified() != null ? newer.getLastModified() : lastModified);
+        renewed.setExpiresAt(expiresAt);
+        renewed.setStaleWhileRevalidate(staleWhileRevalidate);
+        renewed.setStaleIfError(staleIfError);
+        return renewed;
+    }
+
+    /**
+     * Returns a copy of this metadata with the given freshness.
+     * @param expiresAt when the response stops being fresh, in miliseconds since the epoch.
+     * @param directives the caching directives of the response.
+     * @return the new metadata.
+     */
+    CacheMetadata withFreshness(long expiresAt, CacheDirectives directives) {
+        CacheMetadata fresh = new CacheMetadata();
+        fresh.setETag(eTag);
+        fresh.setLastModified(lastModified);
+        fresh.setExpiresAt(expiresAt);
+        fresh.setStaleWhileRevalidate(directives.getStaleWhileRevalidate());
+        fresh.setStaleIfError(directives.getStaleIfError());
+        return fresh;
+    }
+
+    /**
+     * @return true if the freshness of the response was computed from the server's headers.
+     */
+    boolean hasFreshness() {
+        return expiresAt > 0;
+    }
+
+    /**
+     * @return true if there is an ETag or a Last-Modified to revalidate the response with.
+     */
+    boolean hasValidators() {
+        return eTag != null || lastModified != null;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public void setETag(String eTag) {
+        this.eTag = eTag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return when the response stops being fresh, in miliseconds since the epoch, or 0 if it is unknown.
+     */
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * @return how long the response can be served stale while it is refreshed, in miliseconds.
+     */
+    public long getStaleWhileRevalidate() {
+        return staleWhileRevalidate;
+    }
+
+    public void setStaleWhileRevalidate(long staleWhileRevalidate) {
+        this.staleWhileRevalidate = staleWhileRevalidate;
+    }
+
+    /**
+     * @return how long the response can be served stale when the server fails, in miliseconds.
+     */
+    public long getStaleIfError() {
+        return staleIfError;
+    }
+
+    public void setStaleIfError(long staleIfError) {
+        this.staleIfError = staleIfError;
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Stops sending requests to a host which is failing, so the calls fail fast (and fall back to their cache)
+ * instead of waiting for timeouts. Every host, or every registered url prefix, has its own circuit:
+ *
+ * CLOSED: requests are sent, and the outcome of the last ones is kept in a sliding window. When the failure rate
+ * or the slow call rate of the window reaches its threshold, the circuit opens.
+ * OPEN: requests are rejected with a CircuitBreakerOpenException, until the open duration has passed.
+ * HALF_OPEN: a few probe requests are sent. If all of them succeed the circuit closes, otherwise it opens again.
+ *
+ * Connection errors and 5xx responses are failures; other responses are successes, slow if they took longer than
+ * the slow call threshold.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Receives the state transitions of the circuits.
+     */
+    public interface Listener {
+        void onStateChange(String circuit, State from, State to);
+    }
+
+    private static final RestLogger log = RestLogger.getLogger(RestLogger.RESILIENCE);
+
+    private volatile int windowSize = 50;
+    private volatile int minimumCalls = 10;
+    private volatile double failureRateThreshold = 50;
+    private volatile double slowCallRateThreshold = 100;
+    private volatile long slowCallThreshold = 10000;
+    private volatile long openDuration = 30000;
+    private volatile int halfOpenProbes = 3;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+    private final List<String> prefixes = new CopyOnWriteArrayList<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets the amount of requests kept in the sliding window, and the minimum amount needed to open the circuit.
+     * It only applies to circuits created after the call.
+     * @param windowSize the size of the window.
+     * @param minimumCalls the minimum amount of requests in the window before the rates are checked.
+     */
+    public void setWindowSize(int windowSize, int minimumCalls) {
+        if(windowSize<1 || minimumCalls<1 || minimumCalls>windowSize){
+            throw new IllegalArgumentException("The minimum calls must be between 1 and the window size");
+        }
+        this.windowSize = windowSize;
+        this.minimumCalls = minimumCalls;
+    }
+
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param percentage the percentage of failed requests which opens the circuit, IE: 50.
+     */
+    public void setFailureRateThreshold(double percentage) {
+        if(percentage<=0 || percentage>100){
+            throw new IllegalArgumentException("The threshold must be between 0 and 100");
+        }
+        this.failureRateThreshold = percentage;
+    }
+
+    public double getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @param percentage the percentage of slow requests which opens the circuit, IE: 80.
+     */
+    public void setSlowCallRateThreshold(double percentage) {
+        if(percentage<=0 || percentage>100){
+            throw new IllegalArgumentException("The threshold must be between 0 and 100");
+        }
+        this.slowCallRateThreshold = percentage;
+    }
+
+    public long getSlowCallThreshold() {
+        return slowCallThreshold;
+    }
+
+    /**
+     * @param miliseconds the time after which a request is slow, in miliseconds.
+     */
+    public void setSlowCallThreshold(long miliseconds) {
+        if(miliseconds<1){
+            throw new IllegalArgumentException("The slow call threshold must be greater than zero");
+        }
+        this.slowCallThreshold = miliseconds;
+    }
+
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * @param miliseconds how long the circuit stays open before probing the host, in miliseconds.
+     */
+    public void setOpenDuration(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The open duration can't be negative");
+        }
+        this.openDuration = miliseconds;
+    }
+
+    public int getHalfOpenProbes() {
+        return halfOpenProbes;
+    }
+
+    /**
+     * @param halfOpenProbes the amount of requests sent while the circuit is half open.
+     */
+    public void setHalfOpenProbes(int halfOpenProbes) {
+        if(halfOpenProbes<1){
+            throw new IllegalArgumentException("The amount of probes must be greater than zero");
+        }
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Gives the urls starting with a prefix their own circuit, instead of the one of their host.
+     * @param prefix the url prefix, IE: https://api.example.com/payments.
+     */
+    public void addUrlPrefix(String prefix) {
+        if(!prefixes.contains(prefix)) prefixes.add(prefix);
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Returns the circuit of a request: its longest matching url prefix, or its host.
+     * @param url the url of the request.
+     * @param uri the parsed url.
+     * @return the circuit key.
+     */
+    String getCircuitKey(String url, URI uri) {
+        String circuit = null;
+        for(String prefix : prefixes){
+            if(url.startsWith(prefix) && (circuit == null || prefix.length() > circuit.length())) circuit = prefix;
+        }
+        return circuit != null ? circuit : HostLimiter.getHostKey(uri);
+    }
+
+    /**
+     * Asks the circuit if a request can be sent. Every allowed request must report its outcome.
+     * @param circuit the circuit key.
+     * @return true if the request can be sent.
+     */
+    boolean tryAcquire(String circuit) {
+        return getCircuit(circuit).tryAcquire();
+    }
+
+    /**
+     * Gives back the permission taken by tryAcquire, without an outcome. Used for requests which say nothing about
+     * the host, IE: the aborted loser of a hedge; a half-open circuit can then send another probe in its place.
+     * @param circuit the circuit key.
+     */
+    void release(String circuit) {
+        getCircuit(circuit).release();
+    }
+
+    /**
+     * Reports the outcome of a request.
+     * @param circuit the circuit key.
+     * @param failed true if the request failed.
+     * @param miliseconds how long the request took, in miliseconds.
+     */
+    void onResult(String circuit, boolean failed, long miliseconds) {
+        getCircuit(circuit).onResult(failed, miliseconds >= slowCallThreshold);
+    }
+
+    /**
+     * @param failure the exception of a request.
+     * @return true if the exception means the host is failing.
+     */
+    boolean isFailure(RestClientException failure) {
+        if(failure instanceof ResourceAccessException) return true;
+        return failure instanceof HttpStatusCodeException
+                && ((HttpStatusCodeException) failure).getStatusCode().value() >= 500;
+    }
+
+    /**
+     * @param circuit the circuit key, IE: https://api.example.com:443.
+     * @return the state of the circuit. Circuits never used are closed.
+     */
+    public State getState(String circuit) {
+        Circuit state = circuits.get(circuit);
+        return state == null ? State.CLOSED : state.getState();
+    }
+
+    /**
+     * @return the state of every circuit used.
+     */
+    public Map<String, State> getStates() {
+        Map<String, State> states = new HashMap<>();
+        for(Map.Entry<String, Circuit> circuit : circuits.entrySet()){
+            states.put(circuit.getKey(), circuit.getValue().getState());
+        }
+        return states;
+    }
+
+    /**
+     * Closes a circuit, clearing its window.
+     * @param circuit the circuit key.
+     */
+    public void reset(String circuit) {
+        Circuit state = circuits.get(circuit);
+        if(state != null) state.reset();
+    }
+
+    private Circuit getCircuit(String key) {
+        Circuit circuit = circuits.get(key);
+        if(circuit == null){
+            Circuit created = new Circuit(key, windowSize);
+            circuit = circuits.putIfAbsent(key, created);
+            if(circuit == null) circuit = created;
+        }
+        return circuit;
+    }
+
+    private void notifyListeners(String circuit, State from, State to) {
+        if(log.isEnabled(RestLogger.Level.INFO)) log.info("Circuit {}: " + from + " -> " + to, circuit);
+        for(Listener listener : listeners){
+            try {
+                listener.onStateChange(circuit, from, to);
+            } catch (RuntimeException e) {
+                log.warn("A circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    private final class Circuit {
+
+        private static final byte FAILED = 1;
+        private static final byte SLOW = 2;
+
+        private final String key;
+        private final byte[] window;
+        private int next = 0;
+        private int calls = 0;
+        private int failures = 0;
+        private int slowCalls = 0;
+
+        private State state = State.CLOSED;
+        private long openedAt = 0;
+        private int probesSent = 0;
+        private int probesSucceeded = 0;
+
+        Circuit(String key, int windowSize) {
+            this.key = key;
+            this.window = new byte[windowSize];
+        }
+
+        boolean tryAcquire() {
+            State from;
+            synchronized (this) {
+                if(state == State.CLOSED) return true;
+                if(state == State.HALF_OPEN){
+                    if(probesSent >= halfOpenProbes) return false;
+                    probesSent++;
+                    return true;
+                }
+                if(System.currentTimeMillis() - openedAt < openDuration) return false;
+                from = transition(State.HALF_OPEN);
+                probesSent = 1;
+            }
+            notifyListeners(key, from, State.HALF_OPEN);
+            return true;
+        }
+
+        void onResult(boolean failed, boolean slow) {
+            State from = null;
+            State to = null;
+            synchronized (this) {
+                if(state == State.HALF_OPEN){
+                    if(failed){
+                        from = transition(to = State.OPEN);
+                    }
+                    else if(++probesSucceeded >= halfOpenProbes){
+                        from = transition(to = State.CLOSED);
+                    }
+                }
+                else if(state == State.CLOSED){
+                    record(failed, slow);
+                    if(calls >= minimumCalls && (failures * 100.0 / calls >= failureRateThreshold
+                            || slowCalls * 100.0 / calls >= slowCallRateThreshold)){
+                        from = transition(to = State.OPEN);
+                    }
+                }
+            }
+            if(to != null) notifyListeners(key, from, to);
+        }
+
+        private void record(boolean failed, boolean slow) {
+            if(calls == window.length){
+                byte oldest = window[next];
+                if((oldest & FAILED) != 0) failures--;
+                if((oldest & SLOW) != 0) slowCalls--;
+            }
+            else{
+                calls++;
+            }
+            window[next] = (byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0));
+            if(failed) failures++;
+            if(slow) slowCalls++;
+            next = (next + 1) % window.length;
+        }
+
+        /**
+         * Moves to a new state, clearing what the previous one was counting.
+         * @return the previous state.
+         */
+        private State transition(State to) {
+            State from = state;
+            state = to;
+            probesSent = 0;
+            probesSucceeded = 0;
+            if(to == State.OPEN) openedAt = System.currentTimeMillis();
+            if(to == State.CLOSED) clearWindow();
+            return from;
+        }
+
+        private void clearWindow() {
+            Arrays.fill(window, (byte) 0);
+            next = 0;
+            calls = 0;
+            failures = 0;
+            slowCalls = 0;
+        }
+
+        synchronized void release() {
+            if(state == State.HALF_OPEN && probesSent > probesSucceeded) probesSent--;
+        }
+
+        synchronized State getState() {
+            return state;
+        }
+
+        void reset() {
+            State from;
+            synchronized (this) {
+                if(state == State.CLOSED){
+                    clearWindow();
+                    return;
+                }
+                from = transition(State.CLOSED);
+            }
+            notifyListeners(key, from, State.CLOSED);
+        }
+    }
+}
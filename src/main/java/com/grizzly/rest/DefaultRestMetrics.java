@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.HttpMethod;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the measurements of every endpoint in memory: latency and deserialization histograms, counts by status
+ * and by exception, body sizes and cache lookups. Recording only updates atomic counters. To bound the memory
+ * used, endpoints beyond the maximum are recorded together as OTHER_ENDPOINTS.
+ */
+public class DefaultRestMetrics implements RestMetrics {
+
+    public static final String OTHER_ENDPOINTS = "other";
+
+    private final ConcurrentMap<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private volatile int maxEndpoints = 500;
+
+    public int getMaxEndpoints() {
+        return maxEndpoints;
+    }
+
+    /**
+     * @param maxEndpoints the amount of endpoints measured separately.
+     */
+    public void setMaxEndpoints(int maxEndpoints) {
+        if(maxEndpoints<1){
+            throw new IllegalArgumentException("The maximum amount of endpoints must be greater than zero");
+        }
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    @Override
+    public void onRequest(String endpoint, HttpMethod method, int statusCode, Class<? extends Exception> failure,
+                          long nanoseconds, long bytesSent, long bytesReceived) {
+        EndpointMetrics metrics = getMetrics(endpoint);
+        metrics.latency.recordValue(TimeUnit.NANOSECONDS.toMicros(nanoseconds));
+        if(statusCode > 0) increment(metrics.statusCounts, statusCode);
+        if(failure != null) increment(metrics.failureCounts, failure.getName());
+        metrics.bytesSent.addAndGet(bytesSent);
+        metrics.bytesReceived.addAndGet(bytesReceived);
+    }
+
+    @Override
+    public void onDeserialization(String endpoint, long nanoseconds) {
+        getMetrics(endpoint).deserialization.recordValue(TimeUnit.NANOSECONDS.toMicros(nanoseconds));
+    }
+
+    @Override
+    public void onCacheLookup(String endpoint, CacheLayer layer, CacheResult result) {
+        getMetrics(endpoint).cacheLookups.incrementAndGet(getCacheIndex(layer, result));
+    }
+
+    private static int getCacheIndex(CacheLayer layer, CacheResult result) {
+        return layer.ordinal() * CacheResult.values().length + result.ordinal();
+    }
+
+    private static <K> void increment(ConcurrentMap<K, AtomicLong> counts, K key) {
+        AtomicLong count = counts.get(key);
+        if(count == null){
+            AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(key, created);
+            if(count == null) count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    private EndpointMetrics getMetrics(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        if(metrics == null){
+            if(endpoints.size() >= maxEndpoints){
+                endpoint = OTHER_ENDPOINTS;
+                metrics = endpoints.get(endpoint);
+                if(metrics != null) return metrics;
+            }
+            EndpointMetrics created = new EndpointMetrics();
+            metrics = endpoints.putIfAbsent(endpoint, created);
+            if(metrics == null) metrics = created;
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the endpoints measured so far.
+     */
+    public Set<String> getEndpoints() {
+        return new TreeSet<>(endpoints.keySet());
+    }
+
+    /**
+     * @param endpoint an endpoint, as returned by getEndpoints().
+     * @return the measurements of the endpoint, or null if it wasn't measured.
+     */
+    public EndpointMetrics getMetricsOf(String endpoint) {
+        return endpoints.get(endpoint);
+    }
+
+    /**
+     * @return the amount of lookups of a cache layer with a given result, for every endpoint.
+     */
+    public long getCacheLookups(CacheLayer layer, CacheResult result) {
+        long total = 0;
+        for(EndpointMetrics metrics : endpoints.values()){
+            total += metrics.getCacheLookups(layer, result);
+        }
+        return total;
+    }
+
+    /**
+     * @return the share of the calls with a cache lookup which were answered by a cache layer, between 0 and 1.
+     */
+    public double getCacheHitRatio() {
+        long served = 0;
+        for(CacheLayer layer : CacheLayer.values()){
+            served += getCacheLookups(layer, CacheResult.HIT) + getCacheLookups(layer, CacheResult.STALE);
+        }
+        // a memory miss is followed by a disk lookup, so the disk misses are the calls the cache didn't answer
+        long lookups = served + getCacheLookups(CacheLayer.DISK, CacheResult.MISS);
+        return lookups == 0 ? 0 : (double) served / lookups;
+    }
+
+    public void reset() {
+        endpoints.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("EasyRest metrics - cache hit ratio ")
+                .append(Math.round(getCacheHitRatio() * 100)).append('%');
+        for(String endpoint : getEndpoints()){
+            builder.append('\n').append(endpoint).append(": ").append(endpoints.get(endpoint));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The measurements of one endpoint.
+     */
+    public static class EndpointMetrics {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LatencyHistogram deserialization = new LatencyHistogram();
+        private final ConcurrentMap<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, AtomicLong> failureCounts = new ConcurrentHashMap<>();
+        private final AtomicLong bytesSent = new AtomicLong();
+        private final AtomicLong bytesReceived = new AtomicLong();
+        private final AtomicLongArray cacheLookups = new AtomicLongArray(CacheLayer.values().length * CacheResult.values().length);
+
+        /**
+         * @return the histogram of the request durations, in microseconds.
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return the histogram of the time spent reading and deserializing the responses, in microseconds.
+         */
+        public LatencyHistogram getDeserialization() {
+            return deserialization;
+        }
+
+        /**
+         * @return the amount of responses by status code.
+         */
+        public Map<Integer, Long> getStatusCounts() {
+            return snapshot(statusCounts);
+        }
+
+        /**
+         * @return the amount of failed requests by exception class name.
+         */
+        public Map<String, Long> getFailureCounts() {
+            return snapshot(failureCounts);
+        }
+
+        public long getBytesSent() {
+            return bytesSent.get();
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived.get();
+        }
+
+        public long getCacheLookups(CacheLayer layer, CacheResult result) {
+            return cacheLookups.get(getCacheIndex(layer, result));
+        }
+
+        private static <K> Map<K, Long> snapshot(ConcurrentMap<K, AtomicLong> counts) {
+            Map<K, Long> snapshot = new TreeMap<>();
+            for(Map.Entry<K, AtomicLong> count : counts.entrySet()){
+                snapshot.put(count.getKey(), count.getValue().get());
+            }
+            return snapshot;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder("latency[").append(latency)
+                    .append("] deserialization[").append(deserialization)
+                    .append("] status").append(getStatusCounts())
+                    .append(" failures").append(getFailureCounts())
+                    .append(" sent=").append(getBytesSent()).append("B received=").append(getBytesReceived()).append('B');
+            for(CacheLayer layer : CacheLayer.values()){
+                builder.append(' ').append(layer.name().toLowerCase()).append('[');
+                for(CacheResult result : CacheResult.values()){
+                    if(result.ordinal() > 0) builder.append(' ');
+                    builder.append(result.name().toLowerCase()).append('=').append(getCacheLookups(layer, result));
+                }
+                builder.append(']');
+            }
+            return builder.toString();
+        }
+    }
+}
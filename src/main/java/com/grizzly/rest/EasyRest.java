@@ -16,9 +16,17 @@ import java.util.concurrent.FutureTask;
  */
 public class EasyRest {
 
-    private static boolean DebugMode = true;
+    private static volatile boolean DebugMode = false;
 
-    private static LiteCachingStorage defaultQuickCache;
+    private static final LiteCachingStorage defaultQuickCache = new LiteCachingStorage();
+
+    private static final HttpConnectionPool defaultConnectionPool = new HttpConnectionPool();
+
+    private static final RestExecutionEngine defaultExecutionEngine = new RestExecutionEngine("EasyRest-default");
+
+    private static final JacksonRegistry defaultJacksonRegistry = new JacksonRegistry();
+
+    private static final RefreshScheduler defaultRefreshScheduler = new RefreshScheduler();
 
     /**
      * Deletes the EasyRest cache.
@@ -105,8 +113,13 @@ public class EasyRest {
         return true;
     }
 
+    /**
+     * Turns the DEBUG level of the EasyRest logging on or off. The levels of every category can be set with
+     * RestLogger.setLevel.
+     */
     public static void setDebugMode(boolean debugMode){
         DebugMode = debugMode;
+        RestLogger.setDefaultLevel(debugMode ? RestLogger.Level.DEBUG : RestLogger.Level.WARN);
     }
 
     public static boolean isDebugMode(){
@@ -121,8 +134,19 @@ public class EasyRest {
      */
     static String getHashOne(String password)
             throws NoSuchAlgorithmException {
+        return getHashOne(password.getBytes());
+    }
+
+    /**
+     * Creates a SHA-1 hash from the given bytes.
+     * @param data the bytes to be hashed.
+     * @return a String representing the SHA-1 form of the argument.
+     * @throws NoSuchAlgorithmException if the SHA-1 algorithm is absent from the JVM.
+     */
+    static String getHashOne(byte[] data)
+            throws NoSuchAlgorithmException {
         MessageDigest md = MessageDigest.getInstance("SHA-1");
-        md.update(password.getBytes());
+        md.update(data);
 
         byte byteData[] = md.digest();
 
@@ -135,23 +159,78 @@ public class EasyRest {
     }
 
     public static void setQuickCachingAmount(int amount){
-        if(defaultQuickCache == null) defaultQuickCache = new LiteCachingStorage();
         defaultQuickCache.setCachingSize(amount);
     }
 
+    /**
+     * Returns the in-memory cache shared by all the rest calls, IE: to check its hit ratio or bound it by weight.
+     * @return the LiteCachingStorage used as quick cache.
+     */
+    public static LiteCachingStorage getQuickCache(){
+        return defaultQuickCache;
+    }
+
     static void cacheRequest(String name, Object entity){
-        if(defaultQuickCache == null) defaultQuickCache = new LiteCachingStorage();
         defaultQuickCache.addRequest(name, entity);
     }
 
+    static void cacheRequest(String name, Object entity, long timeToLive){
+        defaultQuickCache.addRequest(name, entity, timeToLive);
+    }
+
+    static void cacheRequest(String name, Object entity, long timeToLive, Object metadata){
+        defaultQuickCache.addRequest(name, entity, timeToLive, metadata);
+    }
+
+    static Object getStaleCachedRequest(String name){
+        return defaultQuickCache.getStaleRequest(name);
+    }
+
+    static Object getCachedMetadata(String name){
+        return defaultQuickCache.getMetadata(name);
+    }
+
     static Object getCachedRequest(String name){
-        if(defaultQuickCache==null) defaultQuickCache = new LiteCachingStorage();
-        if(defaultQuickCache.isCachedRequest(name)) return defaultQuickCache.getRequest(name);
-        return null;
+        return defaultQuickCache.getRequest(name);
+    }
+
+    static boolean isFreshCachedRequest(String name, long maxAge){
+        return defaultQuickCache.isCachedRequest(name, maxAge);
+    }
+
+    /**
+     * Returns the connection pool shared by the rest calls which were not created by a WebServiceFactory.
+     * @return the default HttpConnectionPool.
+     */
+    public static HttpConnectionPool getDefaultConnectionPool(){
+        return defaultConnectionPool;
+    }
+
+    /**
+     * Returns the engine which runs the asynchronous work of the rest calls not created by a WebServiceFactory.
+     * @return the default RestExecutionEngine.
+     */
+    public static RestExecutionEngine getDefaultExecutionEngine(){
+        return defaultExecutionEngine;
+    }
+
+    /**
+     * Returns the readers and writers used by the rest calls not created by a WebServiceFactory.
+     * @return the default JacksonRegistry.
+     */
+    public static JacksonRegistry getDefaultJacksonRegistry(){
+        return defaultJacksonRegistry;
+    }
+
+    /**
+     * Returns the scheduler of the cache refreshes of the rest calls not created by a WebServiceFactory.
+     * @return the default RefreshScheduler.
+     */
+    public static RefreshScheduler getDefaultRefreshScheduler(){
+        return defaultRefreshScheduler;
     }
 
     static boolean isCachedRequest(String name){
-        if(defaultQuickCache==null) defaultQuickCache = new LiteCachingStorage();
         return defaultQuickCache.isCachedRequest(name);
     }
 
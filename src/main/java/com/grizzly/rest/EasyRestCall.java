@@ -43,7 +43,7 @@ public class EasyRestCall<T extends sendRestData, X, M> extends GenericRestCall<
             }
         }
         catch(NullPointerException e){
-            e.printStackTrace();
+            RestLogger.getLogger(RestLogger.HTTP).warn("The call can't be configured", e);
         }
 
         if( (this.getUrl() == null || getUrl().trim().equalsIgnoreCase("")) && !entity.getRestContainer().getRequestUrl().isEmpty() ) this.setUrl(entity.getRestContainer().getRequestUrl());
@@ -68,6 +68,12 @@ public class EasyRestCall<T extends sendRestData, X, M> extends GenericRestCall<
         return this;
     }
 
+    @Override
+    public EasyRestCall<T, X, M> setCacheControlPolicy(CacheControlPolicy cacheControlPolicy){
+        super.setCacheControlPolicy(cacheControlPolicy);
+        return this;
+    }
+
 
     @Override
     public EasyRestCall<T, X, M> setTaskCompletion(afterTaskCompletion task){
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Turns request urls into the endpoint keys of the metrics, so every resource of an endpoint shares its
+ * measurements. The query and the fragment are dropped, and path segments which look like identifiers (numbers,
+ * uuids, long hexadecimal or mixed tokens) are replaced by {id}. Templates can be added for the paths the
+ * heuristics don't catch, IE: https://api.example.com/users/{name}/posts.
+ */
+public class EndpointNormalizer {
+
+    private static final Pattern NUMBER = Pattern.compile("-?\\d+([.,]\\d+)?");
+    private static final Pattern UUID = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    private static final Pattern HEX = Pattern.compile("[0-9a-fA-F]{16,}");
+    private static final Pattern TOKEN = Pattern.compile("(?=.*\\d)[A-Za-z0-9_\\-]{20,}");
+
+    private final List<String[]> templates = new CopyOnWriteArrayList<>();
+
+    /**
+     * Adds a url template. Segments between braces match any segment.
+     * @param template the template, IE: https://api.example.com/users/{name}/posts.
+     */
+    public void addTemplate(String template) {
+        templates.add(stripQuery(template).split("/", -1));
+    }
+
+    /**
+     * @param url the url of a request.
+     * @return the endpoint key of the url.
+     */
+    public String normalize(String url) {
+        if(url == null) return "";
+        String[] segments = stripQuery(url).split("/", -1);
+        for(String[] template : templates){
+            if(matches(template, segments)) return join(template, template.length);
+        }
+        // the first three segments are the scheme and the authority
+        for(int i = 3; i < segments.length; i++){
+            if(isIdentifier(segments[i])) segments[i] = "{id}";
+        }
+        return join(segments, segments.length);
+    }
+
+    private static String stripQuery(String url) {
+        int end = url.length();
+        int query = url.indexOf('?');
+        if(query >= 0) end = query;
+        int fragment = url.indexOf('#');
+        if(fragment >= 0 && fragment < end) end = fragment;
+        return url.substring(0, end);
+    }
+
+    private static boolean matches(String[] template, String[] segments) {
+        if(template.length != segments.length) return false;
+        for(int i = 0; i < template.length; i++){
+            String segment = template[i];
+            boolean variable = segment.length() > 1 && segment.charAt(0) == '{' && segment.charAt(segment.length() - 1) == '}';
+            if(!variable && !segment.equalsIgnoreCase(segments[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean isIdentifier(String segment) {
+        if(segment.isEmpty()) return false;
+        return NUMBER.matcher(segment).matches() || UUID.matcher(segment).matches()
+                || HEX.matcher(segment).matches() || TOKEN.matcher(segment).matches();
+    }
+
+    private static String join(String[] segments, int length) {
+        StringBuilder builder = new StringBuilder();
+        for(int i = 0; i < length; i++){
+            if(i > 0) builder.append('/');
+            builder.append(segments[i]);
+        }
+        return builder.toString();
+    }
+}
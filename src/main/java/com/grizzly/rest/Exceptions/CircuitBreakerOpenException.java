@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest.Exceptions;
+
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * An exception thrown instead of sending a request, when the circuit breaker of its host is open.
+ */
+public class CircuitBreakerOpenException extends ResourceAccessException {
+
+    private final String circuit;
+
+    public CircuitBreakerOpenException(String circuit) {
+        super("The circuit breaker of " + circuit + " is open, the request wasn't sent");
+        this.circuit = circuit;
+    }
+
+    /**
+     * @return the circuit which rejected the request, IE: https://api.example.com:443.
+     */
+    public String getCircuit() {
+        return circuit;
+    }
+}
@@ -18,24 +18,41 @@ package com.grizzly.rest;
 
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.grizzly.rest.Definitions.DefinitionsHttpMethods;
+import com.grizzly.rest.Exceptions.CircuitBreakerOpenException;
 import com.grizzly.rest.Model.*;
+import org.apache.http.client.HttpClient;
 import org.springframework.http.*;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.AsyncClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.ListenableFutureCallback;
 import org.springframework.web.client.*;
+import rx.Observable;
+import rx.Scheduler;
 import rx.Subscriber;
+import rx.functions.Action0;
 import rx.functions.Action1;
+import rx.subscriptions.Subscriptions;
 
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Rest class based on the Spring RestTemplate. Allows to send T objects, and retrieves a X result. All classes
@@ -56,6 +73,10 @@ public class GenericRestCall<T, X, M> implements Runnable {
     private static final int SERVER_ERROR = 2;
     private static final int CLIENT_ERROR = 3;*/
 
+    private static final RestLogger httpLog = RestLogger.getLogger(RestLogger.HTTP);
+    private static final RestLogger cacheLog = RestLogger.getLogger(RestLogger.CACHE);
+    private static final RestLogger resilienceLog = RestLogger.getLogger(RestLogger.RESILIENCE);
+
     /**
      * Class members
      * T: the Entity representing the data to be sent.
@@ -68,7 +89,10 @@ public class GenericRestCall<T, X, M> implements Runnable {
     private X jsonResponseEntity;
     private String singleArgument;
     private String url = "";
-    private RestTemplate restTemplate = new RestTemplate();
+    private JacksonRegistry jacksonRegistry = EasyRest.getDefaultJacksonRegistry();
+    private RestTemplate restTemplate = new RestTemplate(Collections.<HttpMessageConverter<?>>singletonList(jacksonRegistry.getConverter()));
+    // kept apart from the template: once it has interceptors, the template wraps its request factory
+    private AbortableRequestFactory requestFactory = new AbortableRequestFactory(EasyRest.getDefaultConnectionPool().getHttpClient());
     private HttpMethod methodToCall;
     private HttpHeaders requestHeaders = new HttpHeaders();
     private HttpHeaders responseHeaders;
@@ -96,14 +120,40 @@ public class GenericRestCall<T, X, M> implements Runnable {
     private boolean enableCache = true;
     private CacheProvider cacheProvider = null;
     private long cacheTime = 899999;
+    private CacheControlPolicy cacheControlPolicy = CacheControlPolicy.FIXED;
+    private boolean refreshAfterServing = false;
+    private boolean bypassFreshness = false;
+    private RefreshScheduler refreshScheduler = EasyRest.getDefaultRefreshScheduler();
+    private Object previousResponseEntity;
+    private int timeOut = 60000;
+    private boolean streamingUpload = false;
+    private Object uploadBody;
+    private RestTemplate streamingTemplate;
+    private boolean requestCompression = false;
+    private int compressionThreshold = GzipRequestInterceptor.DEFAULT_THRESHOLD;
+    private HostLimiter hostLimiter;
+    private RetryPolicy retryPolicy;
+    private HedgingPolicy hedgingPolicy;
+    private CircuitBreaker circuitBreaker;
+    private AsyncTransport asyncTransport;
+    private PrefetchedRequest prefetched;
+    private RestMetrics metrics;
+    private EndpointNormalizer endpointNormalizer;
+    private String endpoint;
     private boolean reprocessWhenRefreshing = false;
     private boolean automaticCacheRefresh = false;
     private String errorResponse = "";
 
     private String basePath = System.getProperty("user.dir");
 
+    private RestExecutionEngine executionEngine = EasyRest.getDefaultExecutionEngine();
+    private RequestCoalescer requestCoalescer;
+    private boolean sharedResponse = false;
+    private boolean noStoreResponse = false;
+
     private List<Action1<RestResults<X>>> mySubscribers;
-    private MappingJackson2HttpMessageConverter jacksonConverter;
+    private Scheduler subscriberScheduler;
+    private RestResults<X> lastResults;
 
     /**
      * Base constructor.
@@ -117,9 +167,9 @@ public class GenericRestCall<T, X, M> implements Runnable {
         this.errorResponseEntityClass = ErrorResponseEntityClass;
         requestHeaders.setContentType(MediaType.APPLICATION_JSON);
 
-        restTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory());
-        ((HttpComponentsClientHttpRequestFactory)restTemplate.getRequestFactory()).setConnectTimeout(60000);
-        ((HttpComponentsClientHttpRequestFactory)restTemplate.getRequestFactory()).setReadTimeout(60000);
+        restTemplate.setRequestFactory(requestFactory);
+        requestFactory.setConnectTimeout(60000);
+        requestFactory.setReadTimeout(60000);
     }
 
     /**
@@ -133,7 +183,7 @@ public class GenericRestCall<T, X, M> implements Runnable {
         this.jsonResponseEntityClass = JsonResponseEntityClass;
         this.errorResponseEntityClass = ErrorResponseEntityClass;
         requestHeaders.setContentType(MediaType.APPLICATION_JSON);
-        restTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory());
+        restTemplate.setRequestFactory(requestFactory);
     }
 
     /**
@@ -145,7 +195,7 @@ public class GenericRestCall<T, X, M> implements Runnable {
         this.entityClass = EntityClass;
         requestHeaders.setContentType(MediaType.APPLICATION_JSON);
 
-        restTemplate.setRequestFactory(new HttpComponentsClientHttpRequestFactory());
+        restTemplate.setRequestFactory(requestFactory);
         if(DefinitionsHttpMethods.isHttpMethod(Method)) {
             fixedMethod = methodToCall = Method;
         }
@@ -155,14 +205,151 @@ public class GenericRestCall<T, X, M> implements Runnable {
      * Setter for the request's timeout
      */
     public GenericRestCall<T, X, M> setTimeOut(int miliseconds){
-        try{
-            ((HttpComponentsClientHttpRequestFactory)restTemplate.getRequestFactory()).setConnectTimeout(miliseconds);
-            ((HttpComponentsClientHttpRequestFactory)restTemplate.getRequestFactory()).setReadTimeout(miliseconds);
+        timeOut = miliseconds;
+        streamingTemplate = null;
+        requestFactory.setConnectTimeout(miliseconds);
+        requestFactory.setReadTimeout(miliseconds);
+        return this;
+    }
+
+    /**
+     * Sets the HttpClient used to open connections, keeping the current timeouts. Used by the factory to share
+     * its pooled client between all the calls it creates.
+     * @param httpClient the client to be used.
+     */
+    void setHttpClient(HttpClient httpClient){
+        requestFactory.setHttpClient(httpClient);
+        streamingTemplate = null;
+    }
+
+    /**
+     * Sets the engine which runs the asynchronous work of this call: the call itself, the cache writes and
+     * the cache refreshes.
+     * @param executionEngine the engine to be used.
+     */
+    void setExecutionEngine(RestExecutionEngine executionEngine){
+        this.executionEngine = executionEngine;
+    }
+
+    /**
+     * Sets the registry of readers and writers used to send and receive the bodies of this call.
+     * @param jacksonRegistry the registry to be used.
+     */
+    void setJacksonRegistry(JacksonRegistry jacksonRegistry){
+        this.jacksonRegistry = jacksonRegistry;
+    }
+
+    /**
+     * Sets the coalescer which makes identical requests in flight share a single network call.
+     * @param requestCoalescer the coalescer to be used, or null to always send the request.
+     */
+    void setRequestCoalescer(RequestCoalescer requestCoalescer){
+        this.requestCoalescer = requestCoalescer;
+    }
+
+    /**
+     * Sets the scheduler of the background refreshes of this call's cache.
+     * @param refreshScheduler the scheduler to be used.
+     */
+    void setRefreshScheduler(RefreshScheduler refreshScheduler){
+        this.refreshScheduler = refreshScheduler;
+    }
+
+    /**
+     * Sets the limiter of the requests sent to every host.
+     * @param hostLimiter the limiter to be used, or null to send the requests right away.
+     */
+    void setHostLimiter(HostLimiter hostLimiter){
+        this.hostLimiter = hostLimiter;
+    }
+
+    /**
+     * Waits for the limits of the host of the call, if there is a HostLimiter.
+     * @return the permit of the request, or null if there are no limits.
+     */
+    private HostLimiter.Permit acquireHostPermit(){
+        if(hostLimiter == null) return null;
+        URI uri = getURI();
+        return uri == null ? null : hostLimiter.acquire(uri);
+    }
+
+    /**
+     * Sets the circuit breaker of the requests sent to every host.
+     * @param circuitBreaker the breaker to be used, or null to always send the requests.
+     */
+    void setCircuitBreaker(CircuitBreaker circuitBreaker){
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * Returns the circuit of the call, or null if there is no CircuitBreaker.
+     * @throws CircuitBreakerOpenException if the circuit doesn't allow the request.
+     */
+    private String acquireCircuit(){
+        if(circuitBreaker == null) return null;
+        URI uri = getURI();
+        if(uri == null) return null;
+        String circuit = circuitBreaker.getCircuitKey(url, uri);
+        if(!circuitBreaker.tryAcquire(circuit)) throw new CircuitBreakerOpenException(circuit);
+        return circuit;
+    }
+
+    /**
+     * Sets the non-blocking transport used by executeAsync to send the request of the call.
+     * @param asyncTransport the transport to be used, or null to send the request from the executor's thread.
+     */
+    void setAsyncTransport(AsyncTransport asyncTransport){
+        this.asyncTransport = asyncTransport;
+    }
+
+    /**
+     * Waits for the limits of the host after the circuit allowed the request, giving the circuit's permission back
+     * if the wait fails (IE: the thread was interrupted).
+     */
+    private HostLimiter.Permit acquireHostPermit(String circuit){
+        try {
+            return acquireHostPermit();
+        } catch (RuntimeException e) {
+            if(circuit != null) circuitBreaker.release(circuit);
+            throw e;
         }
-        catch(ClassCastException e){
-            System.out.println("The factory used wasn't HtppComponents");
+    }
+
+    /**
+     * Reports the outcome of a request to the circuit breaker. An aborted request says nothing about the host, so
+     * it only gives its permission back, IE: the probe slot of a half-open circuit.
+     */
+    private void onCircuitResult(String circuit, boolean failed, long miliseconds, boolean aborted){
+        if(circuit == null) return;
+        if(aborted) circuitBreaker.release(circuit);
+        else circuitBreaker.onResult(circuit, failed, miliseconds);
+    }
+
+    /**
+     * Sets where the measurements of the call are recorded.
+     * @param metrics the metrics to be used, or null to measure nothing.
+     * @param endpointNormalizer turns the url of the call into its endpoint key.
+     */
+    void setMetrics(RestMetrics metrics, EndpointNormalizer endpointNormalizer){
+        this.metrics = metrics;
+        this.endpointNormalizer = endpointNormalizer;
+        this.endpoint = null;
+    }
+
+    /**
+     * @return the endpoint key of the call in the metrics, IE: https://api.example.com/users/{id}.
+     */
+    String getEndpoint(){
+        String current = endpoint;
+        if(current == null){
+            current = endpointNormalizer != null ? endpointNormalizer.normalize(url) : url;
+            endpoint = current;
         }
-        return this;
+        return current;
+    }
+
+    HttpClient getHttpClient(){
+        return requestFactory.getHttpClient();
     }
 
     /**
@@ -284,6 +471,13 @@ public class GenericRestCall<T, X, M> implements Runnable {
         return responseStatus;
     }
 
+    /**
+     * @return the exception which made the call fail, or null if there was none.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
     /**
      * Allows to set the Http method to call. If a invalid or unsupported method is passed, it will be ignored.
      *
@@ -338,6 +532,7 @@ public class GenericRestCall<T, X, M> implements Runnable {
      */
     public GenericRestCall<T, X, M> setUrl(String Url) {
         url = Url;
+        endpoint = null;
         return this;
     }
 
@@ -350,7 +545,7 @@ public class GenericRestCall<T, X, M> implements Runnable {
         try {
             uri = new URI(url);
         } catch (URISyntaxException e) {
-            e.printStackTrace();
+            httpLog.warn("Invalid url: {}", url, e);
         }
         return uri;
     }
@@ -414,6 +609,138 @@ public class GenericRestCall<T, X, M> implements Runnable {
         this.waitingMessage = waitingMessage;
     }
 
+    /**
+     * Writes the entity straight to the connection while the request is sent, with chunked transfer encoding,
+     * instead of serializing it into memory first. Meant for large uploads; the request is never shared with
+     * identical ones.
+     * @param streamingUpload true to stream the entity.
+     */
+    public GenericRestCall<T, X, M> setStreamingUpload(boolean streamingUpload) {
+        this.streamingUpload = streamingUpload;
+        return this;
+    }
+
+    public boolean isStreamingUpload() {
+        return streamingUpload;
+    }
+
+    /**
+     * Sends the content of a stream as the request body, instead of the entity. The body is streamed to the
+     * connection and the stream is closed once sent.
+     * @param body the stream to be sent.
+     */
+    public GenericRestCall<T, X, M> setUploadBody(InputStream body) {
+        this.uploadBody = body;
+        return this;
+    }
+
+    /**
+     * Sends the content of a file as the request body, instead of the entity. The file is streamed to the
+     * connection.
+     * @param body the file to be sent.
+     */
+    public GenericRestCall<T, X, M> setUploadBody(File body) {
+        this.uploadBody = body;
+        return this;
+    }
+
+    /**
+     * Compresses the request bodies with gzip. Responses are always accepted compressed, unless the connection
+     * pool disables it.
+     * @param requestCompression true to compress the request bodies.
+     */
+    public GenericRestCall<T, X, M> setRequestCompression(boolean requestCompression) {
+        this.requestCompression = requestCompression;
+        updateInterceptors();
+        return this;
+    }
+
+    public boolean isRequestCompression() {
+        return requestCompression;
+    }
+
+    /**
+     * Sets the minimum size of a request body to be compressed. Smaller bodies are sent uncompressed.
+     * @param bytes the threshold, in bytes.
+     */
+    public GenericRestCall<T, X, M> setCompressionThreshold(int bytes) {
+        if(bytes<0){
+            throw new IllegalArgumentException("The compression threshold can't be negative");
+        }
+        this.compressionThreshold = bytes;
+        updateInterceptors();
+        return this;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    private void updateInterceptors(){
+        List<ClientHttpRequestInterceptor> interceptors = new ArrayList<>();
+        for(ClientHttpRequestInterceptor interceptor : restTemplate.getInterceptors()){
+            if(!(interceptor instanceof GzipRequestInterceptor)) interceptors.add(interceptor);
+        }
+        if(requestCompression) interceptors.add(new GzipRequestInterceptor(compressionThreshold));
+        restTemplate.setInterceptors(interceptors);
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy used to send the request again when it fails.
+     * @param retryPolicy the policy to be used, or null to never retry.
+     */
+    public GenericRestCall<T, X, M> setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    public HedgingPolicy getHedgingPolicy() {
+        return hedgingPolicy;
+    }
+
+    /**
+     * Sends a second, identical GET request when the first one is slow, keeping the first response.
+     * @param hedgingPolicy the policy to be used, or null to never hedge.
+     */
+    public GenericRestCall<T, X, M> setHedgingPolicy(HedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+        return this;
+    }
+
+    /**
+     * Returns the body of a POST or PUT request: the upload body if there is one, otherwise the entity.
+     */
+    private Object getRequestBody(){
+        if(uploadBody != null) return uploadBody;
+        return bodyless ? null : entity;
+    }
+
+    private boolean isStreamedBody(Object body){
+        return body != null && (streamingUpload || body == uploadBody);
+    }
+
+    /**
+     * Returns a template which doesn't buffer the request body, sharing the client and timeouts of the call's
+     * template. It has no interceptors, as they would buffer the body again.
+     */
+    private RestTemplate getStreamingTemplate(){
+        if(streamingTemplate == null){
+            AbortableRequestFactory streamingFactory = new AbortableRequestFactory(getHttpClient());
+            streamingFactory.setBufferRequestBody(false);
+            streamingFactory.setConnectTimeout(timeOut);
+            streamingFactory.setReadTimeout(timeOut);
+            RestTemplate template = new RestTemplate(restTemplate.getMessageConverters());
+            template.setRequestFactory(streamingFactory);
+            template.setErrorHandler(restTemplate.getErrorHandler());
+            streamingTemplate = template;
+        }
+        return streamingTemplate;
+    }
+
     /**
      * Allows to set the "bodyless" argument. If true, a post request can be sent without a body.
      * @param bol the value to set.
@@ -438,13 +765,98 @@ public class GenericRestCall<T, X, M> implements Runnable {
     private boolean processResponseWithData(ResponseEntity<X> response){
         responseStatus = response.getStatusCode();
         this.setResponseHeaders(response.getHeaders());
-        if(!response.getBody().equals(null)) {
+        noStoreResponse = isNoStore(response.getHeaders());
+        if(response.getBody() != null) {
             jsonResponseEntity = response.getBody();
 
-            if(enableCache){
-                createSolidCache();
+            if(enableCache && !sharedResponse && !noStoreResponse){
+                createSolidCache(applyFreshness(CacheMetadata.fromHeaders(response.getHeaders()), response.getHeaders()));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends the request with the validators of the cached response, if there are any. When the server answers
+     * 304 Not Modified, the cached entity is reused and its freshness renewed, without downloading it again.
+     * @param method the http method.
+     * @return true or false.
+     */
+    private boolean processRevalidation(HttpMethod method){
+        CacheMetadata metadata = getCacheMetadata();
+        HttpHeaders conditionalHeaders = metadata == null ? null : metadata.toConditionalHeaders();
+        ResponseEntity<X> response = exchange(method, null, jsonResponseEntityClass, conditionalHeaders);
+
+        if(conditionalHeaders != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED){
+            CacheMetadata renewed = applyFreshness(metadata.renewWith(CacheMetadata.fromHeaders(response.getHeaders())), response.getHeaders());
+            if(renewCache(renewed, response.getHeaders())){
+                return true;
+            }
+            response = exchange(method, null, jsonResponseEntityClass);
+        }
+        return this.processResponseWithData(response);
+    }
+
+    /**
+     * Checks the no-store directive, which is only honored by the server driven policies.
+     */
+    private boolean isNoStore(HttpHeaders headers){
+        return cacheControlPolicy != CacheControlPolicy.FIXED
+                && CacheDirectives.fromHeaders(headers, System.currentTimeMillis()).isNoStore();
+    }
+
+    /**
+     * Adds the freshness of a response to its metadata, as decided by the CacheControlPolicy of the call.
+     * @param metadata the validators of the response. Can be null.
+     * @param headers the response headers.
+     * @return the metadata to be stored, or null if there is nothing to store.
+     */
+    private CacheMetadata applyFreshness(CacheMetadata metadata, HttpHeaders headers){
+        if(cacheControlPolicy == CacheControlPolicy.FIXED) return metadata;
+        long now = System.currentTimeMillis();
+        CacheDirectives directives = CacheDirectives.fromHeaders(headers, now);
+        long expiresAt = now + cacheControlPolicy.getTimeToLive(directives, cacheTime);
+        return (metadata == null ? new CacheMetadata() : metadata).withFreshness(expiresAt, directives);
+    }
+
+    /**
+     * Returns how long the memory cache must keep an entry. Entries with a server driven freshness are kept during
+     * their stale windows too, as they can still be served.
+     * @param metadata the metadata of the entry. Can be null.
+     * @return the time to live, in miliseconds.
+     */
+    private long getMemoryTimeToLive(CacheMetadata metadata){
+        if(metadata == null || !metadata.hasFreshness()) return cacheTime;
+        long staleWindow = Math.max(metadata.getStaleWhileRevalidate(), metadata.getStaleIfError());
+        return Math.max(metadata.getExpiresAt() + staleWindow - System.currentTimeMillis(), 1);
+    }
+
+    /**
+     * Reuses the cached entity after a 304 Not Modified, renewing its caching time.
+     * @return true if the cached entity was still available.
+     */
+    private boolean renewCache(CacheMetadata metadata, HttpHeaders headers){
+        Object cachedEntity = EasyRest.getStaleCachedRequest(getCachedFileName());
+        File f = new File(getCachedFileName());
+
+        if(cachedEntity == null){
+            if(!f.exists()) return false;
+            try {
+                cachedEntity = jacksonRegistry.getReader(jsonResponseEntityClass, deserializationFeatureMap).readValue(f);
+            } catch (IOException e) {
+                return false;
             }
         }
+
+        jsonResponseEntity = (X) cachedEntity;
+        responseStatus = HttpStatus.OK;
+        this.setResponseHeaders(headers);
+        EasyRest.cacheRequest(getCachedFileName(), jsonResponseEntity, getMemoryTimeToLive(metadata), metadata);
+
+        if(!sharedResponse && f.exists()){
+            f.setLastModified(System.currentTimeMillis());
+            writeCacheMetadata(metadata);
+        }
         return true;
     }
 
@@ -481,7 +893,7 @@ public class GenericRestCall<T, X, M> implements Runnable {
                 queryKey = EasyRest.getHashOne(getURI().getAuthority() + getURI().getPath().replace("/", "_") + getURI().getQuery());
             } catch (NoSuchAlgorithmException e) {
                 queryKey = getURI().getAuthority()+getURI().getPath().replace("/", "_")+getURI().getQuery();
-                e.printStackTrace();
+                cacheLog.warn("SHA-1 is not available, the cache file name isn't hashed", e);
             }
 
             String fileName = basePath + File.separator + "EasyRest" + File.separator
@@ -490,40 +902,123 @@ public class GenericRestCall<T, X, M> implements Runnable {
 
             return fileName;
         }
-        System.out.println("CACHE: " + cachedFileName);
         return cachedFileName;
     }
 
-    private void createSolidCache(){
-
-        EasyRest.cacheRequest(getCachedFileName(), jsonResponseEntity);
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                ObjectMapper mapper = new ObjectMapper();
+    void createSolidCache(final CacheMetadata metadata){
 
-                try {
-                    File dir = new File(basePath + File.separator + "EasyRest");
-                    dir.mkdir();
-                    File f = new File(getCachedFileName());
-                    mapper.writeValue(f, jsonResponseEntity);
-                } catch (IOException e) {
-                    e.printStackTrace();
+        EasyRest.cacheRequest(getCachedFileName(), jsonResponseEntity, getMemoryTimeToLive(metadata), metadata);
+        try {
+            executionEngine.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        File dir = new File(basePath + File.separator + "EasyRest");
+                        dir.mkdir();
+                        File f = new File(getCachedFileName());
+                        getMetadataFile().delete();
+                        jacksonRegistry.getWriter(jsonResponseEntity.getClass()).writeValue(f, jsonResponseEntity);
+                        writeCacheMetadata(metadata);
+                    } catch (IOException e) {
+                        cacheLog.warn("Cache write failed: {}", getCachedFileName(), e);
+                    }
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            cacheLog.warn("Cache write rejected, the entity is only in memory: {}", getCachedFileName());
+        }
+
+    }
+
+    private File getMetadataFile(){
+        return new File(getCachedFileName() + ".meta");
+    }
+
+    private void writeCacheMetadata(CacheMetadata metadata){
+        if(metadata == null) return;
+        try {
+            jacksonRegistry.getWriter(CacheMetadata.class).writeValue(getMetadataFile(), metadata);
+        } catch (IOException e) {
+            cacheLog.warn("Cache metadata write failed: {}", getCachedFileName(), e);
+        }
+    }
+
+    /**
+     * Returns the validators of the cached response, from memory or from the disk cache.
+     * @return the CacheMetadata, or null if there is no cached response or it has no validators.
+     */
+    private CacheMetadata getCacheMetadata(){
+        Object metadata = EasyRest.getCachedMetadata(getCachedFileName());
+        if(metadata instanceof CacheMetadata) return (CacheMetadata) metadata;
+
+        File metadataFile = getMetadataFile();
+        if(!metadataFile.exists() || !new File(getCachedFileName()).exists()) return null;
+        try {
+            return jacksonRegistry.getReader(CacheMetadata.class).readValue(metadataFile);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the cache of this call is younger than cacheTime. The memory cache is checked first, so a memory
+     * hit doesn't touch the disk. With a server driven CacheControlPolicy, the freshness stored with the response is
+     * used instead; a response inside its stale-while-revalidate window is served and refreshed afterwards.
+     * @return true if the cached response can be used without calling the service.
+     */
+    private boolean isCacheFresh(){
+        refreshAfterServing = false;
+        if(!enableCache || bypassFreshness) return false;
+        if(hasFreshCache()) return true;
+        if(metrics != null){
+            metrics.onCacheLookup(getEndpoint(), RestMetrics.CacheLayer.MEMORY, RestMetrics.CacheResult.MISS);
+            metrics.onCacheLookup(getEndpoint(), RestMetrics.CacheLayer.DISK, RestMetrics.CacheResult.MISS);
+        }
+        return false;
+    }
+
+    private boolean hasFreshCache(){
+        if(cacheControlPolicy != CacheControlPolicy.FIXED){
+            CacheMetadata metadata = getCacheMetadata();
+            if(metadata != null && metadata.hasFreshness()){
+                long now = System.currentTimeMillis();
+                if(now < metadata.getExpiresAt()) return true;
+                refreshAfterServing = now < metadata.getExpiresAt() + metadata.getStaleWhileRevalidate();
+                return refreshAfterServing;
             }
-        }).start();
+        }
+        if(EasyRest.isFreshCachedRequest(getCachedFileName(), cacheTime)) return true;
+        File f = new File(getCachedFileName());
+        return f.exists() && System.currentTimeMillis() - f.lastModified() <= cacheTime;
+    }
 
+    /**
+     * @return how a cache lookup after isCacheFresh() serves the call: STALE inside a stale-while-revalidate window.
+     */
+    private RestMetrics.CacheResult getFreshCacheResult(){
+        return refreshAfterServing ? RestMetrics.CacheResult.STALE : RestMetrics.CacheResult.HIT;
     }
 
-    private boolean getFromSolidCache()
+    boolean getFromSolidCache(){
+        return getFromSolidCache(null);
+    }
+
+    /**
+     * Reads the cached response, from memory or from the disk cache.
+     * @param servedAs HIT or STALE, to record the lookup in the metrics, or null if the lookup isn't serving the call.
+     * @return true if there was a cached response.
+     */
+    private boolean getFromSolidCache(RestMetrics.CacheResult servedAs)
     {
-        if(EasyRest.getCachedRequest(getCachedFileName())!=null){
-            jsonResponseEntity = (X) EasyRest.getCachedRequest(getCachedFileName());
+        boolean record = servedAs != null && metrics != null;
+        Object cachedEntity = EasyRest.getCachedRequest(getCachedFileName());
+        if(cachedEntity!=null){
+            jsonResponseEntity = (X) cachedEntity;
             responseStatus = HttpStatus.OK;
+            if(record) metrics.onCacheLookup(getEndpoint(), RestMetrics.CacheLayer.MEMORY, servedAs);
             return true;
         }
-
-        ObjectMapper mapper = new ObjectMapper();
+        if(record) metrics.onCacheLookup(getEndpoint(), RestMetrics.CacheLayer.MEMORY, RestMetrics.CacheResult.MISS);
 
         if(cacheProvider!=null){
             cacheProvider.setCache(this, jsonResponseEntityClass, entityClass, errorResponseEntityClass);
@@ -534,31 +1029,36 @@ public class GenericRestCall<T, X, M> implements Runnable {
             dir.mkdir();
             File f = new File(getCachedFileName());
             if(f.exists()){
-                jsonResponseEntity = mapper.readValue(f, jsonResponseEntityClass);
+                jsonResponseEntity = jacksonRegistry.getReader(jsonResponseEntityClass, deserializationFeatureMap).readValue(f);
                 this.responseStatus = HttpStatus.OK;
-                EasyRest.cacheRequest(getCachedFileName(), jsonResponseEntity);
+                CacheMetadata metadata = getCacheMetadata();
+                long timeToLive = metadata != null && metadata.hasFreshness() ? getMemoryTimeToLive(metadata)
+                        : cacheTime - (System.currentTimeMillis() - f.lastModified());
+                if(timeToLive > 0) EasyRest.cacheRequest(getCachedFileName(), jsonResponseEntity, timeToLive, metadata);
+                if(record) metrics.onCacheLookup(getEndpoint(), RestMetrics.CacheLayer.DISK, servedAs);
                 return true;
             }
-            System.out.println("EasyRest - Cache Failure - FileName: " + getCachedFileName());
+            if(record) metrics.onCacheLookup(getEndpoint(), RestMetrics.CacheLayer.DISK, RestMetrics.CacheResult.MISS);
+            if(cacheLog.isDebugEnabled()) cacheLog.debug("Cache miss: {}", getCachedFileName());
         } catch (JsonGenerationException e) {
 
             this.failure = e;
-            e.printStackTrace();
+            cacheLog.warn("Cache read failed: {}", getCachedFileName(), e);
 
         } catch (JsonMappingException e) {
 
             this.failure = e;
-            e.printStackTrace();
+            cacheLog.warn("Cache read failed: {}", getCachedFileName(), e);
 
         } catch (IOException e) {
 
             this.failure = e;
-            e.printStackTrace();
+            cacheLog.warn("Cache read failed: {}", getCachedFileName(), e);
 
         }
         catch(NullPointerException e){
             this.failure = e;
-            e.printStackTrace();
+            cacheLog.warn("Cache read failed: {}", getCachedFileName(), e);
         }
         return false;
 
@@ -578,6 +1078,23 @@ public class GenericRestCall<T, X, M> implements Runnable {
         return this;
     }
 
+    public CacheControlPolicy getCacheControlPolicy() {
+        return cacheControlPolicy;
+    }
+
+    /**
+     * Sets how the freshness of the cached responses is decided. The default, FIXED, uses cacheTime for every
+     * response.
+     * @param cacheControlPolicy the policy to be used.
+     */
+    public GenericRestCall<T, X, M> setCacheControlPolicy(CacheControlPolicy cacheControlPolicy) {
+        if(cacheControlPolicy == null){
+            throw new IllegalArgumentException("The cache control policy can't be null");
+        }
+        this.cacheControlPolicy = cacheControlPolicy;
+        return this;
+    }
+
     public GenericRestCall<T, X, M> setReprocessWhenRefreshing(boolean reprocessWhenRefreshing) {
         this.reprocessWhenRefreshing = reprocessWhenRefreshing;
         return this;
@@ -588,24 +1105,20 @@ public class GenericRestCall<T, X, M> implements Runnable {
         return this;
     }
 
+    /**
+     * Returns the message converter of this call, with the deserialization features of the call applied.
+     * @return a MappingJackson2HttpMessageConverter.
+     */
     public MappingJackson2HttpMessageConverter getJacksonMapper() {
-
-        if (jacksonConverter == null) {
-            jacksonConverter = new MappingJackson2HttpMessageConverter();
-            jacksonConverter.getObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            jacksonConverter.getObjectMapper().configure(DeserializationFeature.FAIL_ON_INVALID_SUBTYPE, false);
-        }
-
-        if (!getdeserializationFeatureMap().isEmpty()) {
-            for (DeserializationFeature feature : getdeserializationFeatureMap().keySet()) {
-                jacksonConverter.getObjectMapper().configure(feature, getdeserializationFeatureMap().get(feature));
-            }
-        }
-        return jacksonConverter;
+        return jacksonRegistry.getConverter(deserializationFeatureMap);
     }
 
+    /**
+     * Uses the ObjectMapper of a custom converter to send and receive the bodies of this call.
+     * @param customConverter a configured converter.
+     */
     public GenericRestCall<T, X, M> setJacksonMapper(MappingJackson2HttpMessageConverter customConverter) {
-        jacksonConverter = customConverter;
+        jacksonRegistry = new JacksonRegistry(customConverter.getObjectMapper());
         return this;
     }
 
@@ -622,47 +1135,379 @@ public class GenericRestCall<T, X, M> implements Runnable {
     }
 
     /**
-     * Post call. Sends T in J form to retrieve a X result.
+     * Sets where the success subscribers are notified. By default they are notified in the thread which ran the
+     * call, before its common tasks; with a scheduler, a slow subscriber doesn't hold that thread.
+     * IE: observeSubscribersOn(Schedulers.computation()).
+     * @param scheduler the scheduler to be used, or null to notify the subscribers in the thread of the call.
      */
-    private void doPost() {
+    public GenericRestCall<T, X, M> observeSubscribersOn(Scheduler scheduler){
+        subscriberScheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Returns a cold Observable of the call. Every subscription executes the call in the subscribing thread, with
+     * its cache and callbacks, then emits the same RestResults the success subscribers receive (unsuccessful if the
+     * call failed) and completes. subscribeOn chooses where the call runs and observeOn where the results are
+     * delivered. A call can't run twice at the same time, so several subscribers must share a single execution
+     * through cache() or publish(). Unsubscribing before the results are emitted aborts the request in flight and
+     * skips the callbacks, as cancelling the future of executeAsync does.
+     * @return an Observable emitting one RestResults.
+     */
+    public Observable<RestResults<X>> toObservable() {
+        return Observable.create(new Observable.OnSubscribe<RestResults<X>>() {
+            @Override
+            public void call(Subscriber<? super RestResults<X>> subscriber) {
+                if(subscriber.isUnsubscribed()) return;
+                final AbortableRequestFactory.Handle handle = new AbortableRequestFactory.Handle();
+                subscriber.add(Subscriptions.create(new Action0() {
+                    @Override
+                    public void call() {
+                        handle.abort();
+                    }
+                }));
+
+                AbortableRequestFactory.Handle previous = AbortableRequestFactory.getCurrentHandle();
+                AbortableRequestFactory.setCurrentHandle(handle);
+                RestResults<X> results;
+                try {
+                    lastResults = null;
+                    boolean successful = get();
+                    results = lastResults != null ? lastResults : createRestResults(jsonResponseEntity, successful);
+                } catch (RuntimeException e) {
+                    subscriber.onError(e);
+                    return;
+                } finally {
+                    AbortableRequestFactory.setCurrentHandle(previous);
+                }
+                if(subscriber.isUnsubscribed()) return;
+                subscriber.onNext(results);
+                subscriber.onCompleted();
+            }
+        });
+    }
+
+    /**
+     * Sends the request, writing the body and reading the response with the cached writers and readers of the
+     * JacksonRegistry. Identical GET requests in flight at the same time share a single network call when a
+     * RequestCoalescer is set; so do POST requests with caching enabled, if the coalescer allows it.
+     * @param method the http method.
+     * @param body the request body. If null, no body is sent.
+     * @param responseClass the class of the response body. Void if no body is expected.
+     * @return the response, with a null body if there was none.
+     */
+    private <R> ResponseEntity<R> exchange(HttpMethod method, Object body, Class<R> responseClass){
+        return exchange(method, body, responseClass, null);
+    }
+
+    /**
+     * Same as exchange(method, body, responseClass), adding some headers to the ones of the call.
+     * @param extraHeaders headers for this request only. Can be null.
+     */
+    private <R> ResponseEntity<R> exchange(final HttpMethod method, final Object body, final Class<R> responseClass,
+                                           final HttpHeaders extraHeaders){
+        sharedResponse = false;
+        PrefetchedRequest first = prefetched;
+        if(first != null){
+            prefetched = null;
+            if(first.matches(method, body, responseClass, extraHeaders)){
+                return send(method, body, responseClass, extraHeaders, first);
+            }
+        }
+        if(requestCoalescer == null || isStreamedBody(body)
+                || !(method == HttpMethod.GET || (method == HttpMethod.POST && enableCache && requestCoalescer.isPostCoalescing()))){
+            return send(method, body, responseClass, extraHeaders);
+        }
+
+        String identity = getRequestIdentity(method, body, extraHeaders);
+        if(identity == null) return send(method, body, responseClass, extraHeaders);
+
+        RequestCoalescer.Request<R> request = new RequestCoalescer.Request<R>() {
+            @Override
+            ResponseEntity<R> send() {
+                return GenericRestCall.this.send(method, body, responseClass, extraHeaders);
+            }
+        };
+        ResponseEntity<R> response = requestCoalescer.execute(identity, request);
+        sharedResponse = request.isShared();
+        return response;
+    }
+
+    /**
+     * Builds the identity used to coalesce requests: the method, the cache name of the call (response type and
+     * url), the hash of the authorization header, the request's extra headers (IE: the validators of a conditional
+     * request) and, if there is a body, its hash.
+     * @return the identity, or null if the authorization or the body couldn't be hashed.
+     */
+    String getRequestIdentity(HttpMethod method, Object body, HttpHeaders extraHeaders){
+        StringBuilder identity = new StringBuilder();
+        identity.append(method.name()).append(' ').append(getCachedFileName());
 
         try {
+            String authorization = requestHeaders.getFirst("Authorization");
+            if(authorization != null) identity.append(' ').append(EasyRest.getHashOne(authorization));
 
-            HttpEntity<?> requestEntity;
-            if(!bodyless){
-                requestEntity = new HttpEntity<Object>(entity, requestHeaders);
+            if(extraHeaders != null){
+                for(Map.Entry<String, List<String>> header : extraHeaders.entrySet()){
+                    identity.append(' ').append(header.getKey()).append('=').append(header.getValue());
+                }
             }
-            else{
-                requestEntity = new HttpEntity<Object>(requestHeaders);
+
+            if(body != null){
+                identity.append(' ').append(EasyRest.getHashOne(jacksonRegistry.getWriter(body.getClass()).writeValueAsBytes(body)));
             }
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            return null;
+        }
+        return identity.toString();
+    }
+
+    private <R> ResponseEntity<R> send(HttpMethod method, Object body, Class<R> responseClass, HttpHeaders extraHeaders){
+        return send(method, body, responseClass, extraHeaders, null);
+    }
 
-            List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
-            messageConverters.add(getJacksonMapper());
-            restTemplate.setMessageConverters(messageConverters);
+    /**
+     * Sends the request through the RestTemplate, retrying it as the RetryPolicy of the call allows. Bodies read
+     * from an InputStream can't be sent twice, so they are never retried.
+     * @param first the first attempt, already sent through the AsyncTransport, or null to send it now.
+     */
+    private <R> ResponseEntity<R> send(HttpMethod method, Object body, Class<R> responseClass, HttpHeaders extraHeaders,
+                                       PrefetchedRequest first){
+        ObjectWriter writer = body != null && !(body instanceof InputStream || body instanceof File)
+                ? jacksonRegistry.getWriter(body.getClass()) : null;
+        ObjectReader reader = responseClass.equals(Void.class) ? null
+                : jacksonRegistry.getReader(responseClass, deserializationFeatureMap);
+
+        HttpHeaders headers = requestHeaders;
+        if(extraHeaders != null){
+            headers = new HttpHeaders();
+            headers.putAll(requestHeaders);
+            headers.putAll(extraHeaders);
+        }
+
+        RetryPolicy policy = retryPolicy;
+        URI uri = policy != null || hedgingPolicy != null ? getURI() : null;
+        String host = policy != null && uri != null && !(body instanceof InputStream) && policy.isRetryable(method, headers)
+                ? HostLimiter.getHostKey(uri) : null;
+        if(host != null) policy.onFirstAttempt(host);
+
+        int attempt = 1;
+        while(true){
+            try {
+                if(first != null){
+                    PrefetchedRequest answered = first;
+                    first = null;
+                    return (ResponseEntity<R>) answered.getResponse();
+                }
+                if(method == HttpMethod.GET && hedgingPolicy != null && uri != null){
+                    return sendHedged(uri, headers, reader);
+                }
+                return sendOnce(method, body, headers, writer, reader);
+            } catch (RestClientException e) {
+                if(AbortableRequestFactory.isCurrentRequestAborted()) throw e;
+                if(host == null || attempt >= policy.getMaxAttempts() || !policy.isRetryable(e)) throw e;
+                long delay = policy.getDelay(attempt, e);
+                if(delay < 0 || !policy.tryRetry(host)) throw e;
+                if(resilienceLog.isDebugEnabled()) resilienceLog.debug("Retrying in {}ms: {}", delay, e.getMessage());
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Sends a GET request with a hedge, as the HedgingPolicy of the call allows.
+     */
+    private <R> ResponseEntity<R> sendHedged(URI uri, final HttpHeaders headers, final ObjectReader reader){
+        return HedgedRequest.execute(new HedgedRequest.Attempt<R>() {
+            @Override
+            ResponseEntity<R> send() {
+                return sendOnce(HttpMethod.GET, null, headers, null, reader);
+            }
+        }, hedgingPolicy, HostLimiter.getHostKey(uri), executionEngine);
+    }
+
+    private <R> ResponseEntity<R> sendOnce(HttpMethod method, Object body, HttpHeaders headers, ObjectWriter writer,
+                                           ObjectReader reader){
+        String circuit = acquireCircuit();
+        HostLimiter.Permit permit = acquireHostPermit(circuit);
+        JacksonRequestCallback callback = isStreamedBody(body)
+                ? new JacksonRequestCallback(headers, body, writer, requestCompression ? compressionThreshold : -1)
+                : new JacksonRequestCallback(headers, body, writer);
+        JacksonResponseExtractor<R> extractor = new JacksonResponseExtractor<>(reader);
+        long start = System.nanoTime();
+        RestClientException failure = null;
+        ResponseEntity<R> response = null;
+        try {
+            response = (isStreamedBody(body) ? getStreamingTemplate() : restTemplate).execute(url, method, callback, extractor);
+            return response;
+        } catch (RestClientException e) {
+            failure = e;
+            throw e;
+        } finally {
+            if(permit != null) permit.release();
+            boolean aborted = AbortableRequestFactory.isCurrentRequestAborted();
+            long duration = System.nanoTime() - start;
+            onCircuitResult(circuit, circuit != null && failure != null && circuitBreaker.isFailure(failure),
+                    TimeUnit.NANOSECONDS.toMillis(duration), aborted);
+            if(metrics != null && !aborted) recordRequest(method, response, failure, duration, callback, extractor);
+        }
+    }
+
+    private void recordRequest(HttpMethod method, ResponseEntity<?> response, RestClientException failure,
+                               long duration, JacksonRequestCallback callback, JacksonResponseExtractor<?> extractor){
+        String endpoint = getEndpoint();
+        int statusCode = 0;
+        long bytesReceived = extractor.getBytesRead();
+        if(response != null){
+            statusCode = response.getStatusCode().value();
+        }
+        else if(failure instanceof HttpStatusCodeException){
+            statusCode = ((HttpStatusCodeException) failure).getStatusCode().value();
+            bytesReceived = ((HttpStatusCodeException) failure).getResponseBodyAsByteArray().length;
+        }
+        metrics.onRequest(endpoint, method, statusCode, failure == null ? null : failure.getClass(), duration,
+                callback.getBytesWritten(), bytesReceived);
+        if(extractor.getDeserializationTime() >= 0) metrics.onDeserialization(endpoint, extractor.getDeserializationTime());
+    }
+
+    /**
+     * Sends the request and returns the elements of the response as they are parsed, instead of reading the whole
+     * response into X. The response can be a top level JSON array or newline delimited JSON. Streamed responses
+     * are not cached and not shared with identical requests.
+     * @param elementClass the class of the elements of the response.
+     * @return an open RestStream, which must be read to the end or closed.
+     * @throws RestClientException if the request fails or the server answers with an error.
+     */
+    public <E> RestStream<E> stream(Class<E> elementClass) throws RestClientException {
+        HttpMethod method = getMethodToCall();
+        Object body = (method == HttpMethod.POST || method == HttpMethod.PUT) && !bodyless ? entity : null;
+        ObjectWriter writer = body != null ? jacksonRegistry.getWriter(body.getClass()) : null;
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.putAll(requestHeaders);
+        if(headers.getAccept().isEmpty()){
+            headers.setAccept(Arrays.asList(MediaType.APPLICATION_JSON, MediaType.parseMediaType("application/x-ndjson")));
+        }
+
+        ClientHttpResponse response = null;
+        String circuit = acquireCircuit();
+        long start = System.currentTimeMillis();
+        HostLimiter.Permit permit = acquireHostPermit(circuit);
+        // the stream aborts its own request when it's closed early; aborting the run aborts it too
+        AbortableRequestFactory.Handle previous = AbortableRequestFactory.getCurrentHandle();
+        AbortableRequestFactory.Handle handle = previous != null ? previous.createChild() : new AbortableRequestFactory.Handle();
+        AbortableRequestFactory.setCurrentHandle(handle);
+        try {
+            ClientHttpRequest request = restTemplate.getRequestFactory().createRequest(getURI(), method);
+            new JacksonRequestCallback(headers, body, writer).doWithRequest(request);
+            response = request.execute();
+            if(circuit != null){
+                onCircuitResult(circuit, response.getRawStatusCode() >= 500, System.currentTimeMillis() - start,
+                        AbortableRequestFactory.isCurrentRequestAborted());
+                circuit = null;
+            }
+            if(restTemplate.getErrorHandler().hasError(response)){
+                restTemplate.getErrorHandler().handleError(response);
+            }
+            RestStream<E> stream = new RestStream<>(response, jacksonRegistry.getReader(elementClass, deserializationFeatureMap), permit, handle);
+            responseStatus = response.getStatusCode();
+            setResponseHeaders(response.getHeaders());
+            return stream;
+        } catch (IOException e) {
+            if(response != null) response.close();
+            if(permit != null) permit.release();
+            onCircuitResult(circuit, true, System.currentTimeMillis() - start, AbortableRequestFactory.isCurrentRequestAborted());
+            throw new ResourceAccessException("I/O error on " + method + " request for \"" + url + "\": " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            if(response != null) response.close();
+            if(permit != null) permit.release();
+            onCircuitResult(circuit, false, System.currentTimeMillis() - start, AbortableRequestFactory.isCurrentRequestAborted());
+            throw e;
+        } finally {
+            AbortableRequestFactory.setCurrentHandle(previous);
+        }
+    }
+
+    /**
+     * Sends the request and delivers the elements of the response to a callback, one by one, in the calling thread.
+     * @param elementClass the class of the elements of the response.
+     * @param callback the callback receiving the elements.
+     * @return the amount of elements received.
+     * @throws RestClientException if the request fails or the server answers with an error.
+     */
+    public <E> long stream(Class<E> elementClass, afterElementReceived<E> callback) throws RestClientException {
+        long count = 0;
+        RestStream<E> stream = stream(elementClass);
+        try {
+            while(stream.hasNext()){
+                callback.onElementReceived(stream.next());
+                count++;
+            }
+        } finally {
+            stream.close();
+        }
+        return count;
+    }
+
+    /**
+     * Returns an Observable of the elements of the response. The request is sent on every subscription, and the
+     * response is only read as fast as the subscriber requests elements. Unsubscribing aborts the request.
+     * @param elementClass the class of the elements of the response.
+     * @return a cold Observable.
+     */
+    public <E> Observable<E> streamObservable(final Class<E> elementClass) {
+        return Observable.create(new Observable.OnSubscribe<E>() {
+            @Override
+            public void call(Subscriber<? super E> subscriber) {
+                final RestStream<E> stream;
+                try {
+                    stream = stream(elementClass);
+                } catch (RuntimeException e) {
+                    subscriber.onError(e);
+                    return;
+                }
+                subscriber.setProducer(stream.createProducer(subscriber));
+            }
+        });
+    }
+
+    /**
+     * Post call. Sends T in J form to retrieve a X result.
+     */
+    private void doPost() {
+
+        try {
+
+            Object requestBody = getRequestBody();
 
             try {
 
                 if(jsonResponseEntityClass.getCanonicalName().equalsIgnoreCase(Void.class.getCanonicalName())){
-                    ResponseEntity response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, Void.class);
+                    ResponseEntity response = exchange(HttpMethod.POST, requestBody, Void.class);
                     result = this.processResponseWithouthData(response);
                 }
                 else{
 
                     ResponseEntity<X> response = null;
 
-                    File f = new File(getCachedFileName());
-                    if(f.exists() && ((enableCache && Calendar.getInstance(Locale.getDefault()).getTimeInMillis()-f.lastModified()<=cacheTime))) {
-                        if(getFromSolidCache()){
-                            if(this.automaticCacheRefresh)this.createDelayedCall(reprocessWhenRefreshing);
+                    if(isCacheFresh()) {
+                        if(getFromSolidCache(getFreshCacheResult())){
+                            if(this.automaticCacheRefresh || refreshAfterServing)this.createDelayedCall(reprocessWhenRefreshing);
                             result = true;
                         }
                         else{
-                            response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, jsonResponseEntityClass);
+                            response = exchange(HttpMethod.POST, requestBody, jsonResponseEntityClass);
                             result = this.processResponseWithData(response);
                         }
                     }
                     else{
-                        response = restTemplate.exchange(url, HttpMethod.POST, requestEntity, jsonResponseEntityClass);
+                        response = exchange(HttpMethod.POST, requestBody, jsonResponseEntityClass);
                         result = this.processResponseWithData(response);
                     }
                 }
@@ -673,16 +1518,13 @@ public class GenericRestCall<T, X, M> implements Runnable {
                 failure = e;
                 connectionException = e;
                 //errorType = ERROR;
-                System.out.println("The error was caused by the body "+entityClass.getCanonicalName());
-                System.out.println(" and the response " + jsonResponseEntityClass.getCanonicalName());
-                System.out.println(" in the url " + url);
-                e.printStackTrace();
+                logFailure(e);
             }
             catch(org.springframework.http.converter.HttpMessageNotReadableException e){
-                System.out.println("Conversion error the error found "+e.getMessage());
-                System.out.println(" the expected response type was " + jsonResponseEntityClass.getCanonicalName());
-                System.out.println(" in the url " + url);
-                e.printStackTrace();
+                if(httpLog.isDebugEnabled()){
+                    httpLog.debug("Conversion error, the expected response type was "
+                            + jsonResponseEntityClass.getCanonicalName() + " in the url " + url, e);
+                }
             }
         } catch (Exception e) {
             handleException(e);
@@ -697,36 +1539,29 @@ public class GenericRestCall<T, X, M> implements Runnable {
 
         try {
 
-            List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
-            messageConverters.add(new MappingJackson2HttpMessageConverter());
-            restTemplate.setMessageConverters(messageConverters);
-
             try {
-                HttpEntity<?> requestEntity = new HttpEntity<Object>(requestHeaders);
 
                 if (jsonResponseEntityClass.getCanonicalName().equalsIgnoreCase(Void.class.getCanonicalName())) {
-                    ResponseEntity response = restTemplate.exchange(url, HttpMethod.GET, requestEntity, Void.class);
+                    ResponseEntity response = exchange(HttpMethod.GET, null, Void.class);
                     result = this.processResponseWithouthData(response);
                 } else {
                     ResponseEntity<X> response = null;
 
-                    File f = new File(getCachedFileName());
-
-                    if(f.exists() && ((enableCache && Calendar.getInstance(Locale.getDefault()).getTimeInMillis()-f.lastModified()<=cacheTime))) {
-                        if(getFromSolidCache()) {
-                            if (this.automaticCacheRefresh) this.createDelayedCall(reprocessWhenRefreshing);
+                    if(isCacheFresh()) {
+                        if(getFromSolidCache(getFreshCacheResult())) {
+                            if (this.automaticCacheRefresh || refreshAfterServing) this.createDelayedCall(reprocessWhenRefreshing);
                             result = true;
-                            if (EasyRest.isDebugMode()) System.out.println("EasyRest - We got from cache!");
+                            cacheLog.debug("Served from cache: {}", url);
                         }
                         else{
-                            response = restTemplate.exchange(url, HttpMethod.GET, requestEntity, jsonResponseEntityClass);
+                            response = exchange(HttpMethod.GET, null, jsonResponseEntityClass);
                             result = this.processResponseWithData(response);
-                            if(EasyRest.isDebugMode())System.out.println("EasyRest - We got from service, cache failed!");
+                            cacheLog.debug("Served from service, the cache read failed: {}", url);
                         }
                     } else {
-                        response = restTemplate.exchange(url, HttpMethod.GET, requestEntity, jsonResponseEntityClass);
-                        result = this.processResponseWithData(response);
-                        if(EasyRest.isDebugMode())System.out.println("EasyRest - We got from service, cache failed!");
+                        result = enableCache ? this.processRevalidation(HttpMethod.GET)
+                                : this.processResponseWithData(exchange(HttpMethod.GET, null, jsonResponseEntityClass));
+                        cacheLog.debug("Served from service: {}", url);
                     }
                 }
 
@@ -746,19 +1581,14 @@ public class GenericRestCall<T, X, M> implements Runnable {
 
         try {
 
-            HttpEntity<?> requestEntity = new HttpEntity<Object>(entity, requestHeaders);
-            List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
-            messageConverters.add(new MappingJackson2HttpMessageConverter());
-            restTemplate.setMessageConverters(messageConverters);
-
             try {
 
                 if(jsonResponseEntityClass.getCanonicalName().equalsIgnoreCase(Void.class.getCanonicalName())){
-                    ResponseEntity response = restTemplate.exchange(url, HttpMethod.DELETE, requestEntity, Void.class);
+                    ResponseEntity response = exchange(HttpMethod.DELETE, entity, Void.class);
                     result = this.processResponseWithouthData(response);
                 }
                 else{
-                    ResponseEntity<X> response = restTemplate.exchange(url, HttpMethod.DELETE, requestEntity, jsonResponseEntityClass);
+                    ResponseEntity<X> response = exchange(HttpMethod.DELETE, entity, jsonResponseEntityClass);
                     result = this.processResponseWithData(response);
                 }
             } catch (org.springframework.web.client.HttpClientErrorException | HttpServerErrorException e) {
@@ -779,18 +1609,9 @@ public class GenericRestCall<T, X, M> implements Runnable {
 
         try {
 
-            HttpEntity<String> requestEntity = new HttpEntity<String>(singleArgument, requestHeaders);
-            List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
-            /*
-             * commented: testing GSON instead of Jackson as a message converter
-             * */
-            messageConverters.add(new MappingJackson2HttpMessageConverter());
-            //messageConverters.create(new GsonHttpMessageConverter());
-            restTemplate.setMessageConverters(messageConverters);
-
             try {
 
-                ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.DELETE, requestEntity, String.class);
+                ResponseEntity<String> response = exchange(HttpMethod.DELETE, entity, String.class);
                 HttpStatus status = response.getStatusCode();
                 if (status == HttpStatus.OK || status == HttpStatus.ACCEPTED || status == HttpStatus.CREATED) {
                     this.result = true;
@@ -813,39 +1634,28 @@ public class GenericRestCall<T, X, M> implements Runnable {
 
         try {
 
-            HttpEntity<?> requestEntity;
-            if(!bodyless){
-                requestEntity = new HttpEntity<Object>(entity, requestHeaders);
-            }
-            else{
-                requestEntity = new HttpEntity<Object>(requestHeaders);
-            }
-
-            List<HttpMessageConverter<?>> messageConverters = new ArrayList<HttpMessageConverter<?>>();
-            messageConverters.add(new MappingJackson2HttpMessageConverter());
-            restTemplate.setMessageConverters(messageConverters);
+            Object requestBody = getRequestBody();
 
             try {
                 if(jsonResponseEntityClass.getCanonicalName().equalsIgnoreCase(Void.class.getCanonicalName())){
-                    ResponseEntity response = restTemplate.exchange(url, HttpMethod.PUT, requestEntity, Void.class);
+                    ResponseEntity response = exchange(HttpMethod.PUT, requestBody, Void.class);
                     result = this.processResponseWithouthData(response);
                 }
                 else{
 
                     ResponseEntity<X> response = null;
 
-                    File f = new File(getCachedFileName());
-                    if(f.exists() && ((enableCache && Calendar.getInstance(Locale.getDefault()).getTimeInMillis()-f.lastModified()<=cacheTime))) {
-                        if(getFromSolidCache()){
-                            if(this.automaticCacheRefresh)this.createDelayedCall(reprocessWhenRefreshing);
+                    if(isCacheFresh()) {
+                        if(getFromSolidCache(getFreshCacheResult())){
+                            if(this.automaticCacheRefresh || refreshAfterServing)this.createDelayedCall(reprocessWhenRefreshing);
                             result = true;
                         }else{
-                            if(this.automaticCacheRefresh)this.createDelayedCall(reprocessWhenRefreshing);
+                            if(this.automaticCacheRefresh || refreshAfterServing)this.createDelayedCall(reprocessWhenRefreshing);
                             result = true;
                         }
                     }
                     else{
-                        response = restTemplate.exchange(url, HttpMethod.PUT, requestEntity, jsonResponseEntityClass);
+                        response = exchange(HttpMethod.PUT, requestBody, jsonResponseEntityClass);
                         result = this.processResponseWithData(response);
                     }
                 }
@@ -867,32 +1677,33 @@ public class GenericRestCall<T, X, M> implements Runnable {
     protected void onPostExecute(Boolean result) {
 
         this.result = result.booleanValue();
+        // the run was cancelled or timed out (IE: its RestFuture): later runs of the call aren't affected
+        if(AbortableRequestFactory.isCurrentRequestAborted()) return;
 
-        if(enableCache){
+        // a shared response was written to the cache by the call which sent it, maybe not yet, and a no-store
+        // one was never written: the cache only holds an older entity
+        if(enableCache && !sharedResponse && !noStoreResponse){
             getFromSolidCache();
         }
 
         if(responseStatus.value()>399) result = false;
 
         if(result){
-            if(EasyRest.isDebugMode()){
-                if(getResponseHeaders()!=null){
-                    System.out.println("EasyRest - Response Headers");
-                    for(String s: getResponseHeaders().keySet()){
-                        System.out.println("EasyRest - "+ s + ":" + getResponseHeaders().get(s));
-                    }
-                }
+            if(httpLog.isTraceEnabled() && getResponseHeaders()!=null){
+                httpLog.trace("Response headers of {}: {}", url, getResponseHeaders());
             }
-            if(taskCompletion != null){
-                taskCompletion.onTaskCompleted(jsonResponseEntity);
+            if(!isUnchangedRefresh()){
+                if(taskCompletion != null){
+                    taskCompletion.onTaskCompleted(jsonResponseEntity);
+                }
+                notifySubscribers(jsonResponseEntity, true);
             }
-            notifySubscribers(jsonResponseEntity, true);
         }
-        else{
+        else if(previousResponseEntity == null){
 
             if(taskCompletion != null && enableCache){
                 //TODO: create a more generic naming approach
-                if(getFromSolidCache()){
+                if(isStaleUsableOnError() && getFromSolidCache(RestMetrics.CacheResult.STALE)){
                     taskCompletion.onTaskCompleted(jsonResponseEntity);
                     notifySubscribers(jsonResponseEntity, true);
                 }
@@ -907,6 +1718,33 @@ public class GenericRestCall<T, X, M> implements Runnable {
         if(commonTasks!=null) commonTasks.performCommonTask(result, this.getResponseStatus());
     }
 
+    /**
+     * Checks if this call is a refresh which got the same content that was already processed. A failed refresh
+     * keeps the cached content, so it isn't processed again either.
+     * @return true if the callbacks must not be invoked again.
+     */
+    private boolean isUnchangedRefresh(){
+        if(previousResponseEntity == null) return false;
+        if(jsonResponseEntity == null) return false;
+        try {
+            ObjectWriter writer = jacksonRegistry.getWriter(jsonResponseEntityClass);
+            return Arrays.equals(writer.writeValueAsBytes(previousResponseEntity), writer.writeValueAsBytes(jsonResponseEntity));
+        } catch (JsonProcessingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * With a server driven CacheControlPolicy, a response with a stale-if-error directive is only served on failure
+     * inside that window. Any other cached response is served, as with the FIXED policy.
+     */
+    private boolean isStaleUsableOnError(){
+        if(cacheControlPolicy == CacheControlPolicy.FIXED) return true;
+        CacheMetadata metadata = getCacheMetadata();
+        if(metadata == null || !metadata.hasFreshness() || metadata.getStaleIfError() <= 0) return true;
+        return System.currentTimeMillis() < metadata.getExpiresAt() + metadata.getStaleIfError();
+    }
+
     private void errorExecution(){
         boolean executed = false;
 
@@ -939,7 +1777,7 @@ public class GenericRestCall<T, X, M> implements Runnable {
                     taskFailure.onTaskFailed(null, failure);
                 }
                 else{
-                    System.out.println("EasyRest - SAFEGUARD");
+                    httpLog.debug("No error body, an empty {} is reported", errorResponseEntityClass.getSimpleName());
                     taskFailure.onTaskFailed(errorResponseEntityClass.newInstance(), failure);
                 }
 
@@ -948,9 +1786,9 @@ public class GenericRestCall<T, X, M> implements Runnable {
                     taskFailure.onTaskFailed(null, failure);
                 }
                 catch(Exception e1){
-                    e1.printStackTrace();
+                    httpLog.warn("The failure callback failed", e1);
                 }
-                e.printStackTrace();
+                httpLog.warn("The error body can't be created", e);
             } catch (IllegalAccessException e) {
                 //e.printStackTrace();
             }
@@ -960,11 +1798,30 @@ public class GenericRestCall<T, X, M> implements Runnable {
 
     private void createDelayedCall(boolean enableDelayedReprocess){
         GenericRestCall<T, X, M> delayedCall = new GenericRestCall(entityClass, jsonResponseEntityClass, errorResponseEntityClass);
+        delayedCall.restTemplate = restTemplate;
+        delayedCall.requestFactory = requestFactory;
+        delayedCall.setRefreshScheduler(refreshScheduler);
+        delayedCall.setHostLimiter(hostLimiter);
+        delayedCall.setRetryPolicy(retryPolicy);
+        delayedCall.setHedgingPolicy(hedgingPolicy);
+        delayedCall.setCircuitBreaker(circuitBreaker);
+        delayedCall.setAsyncTransport(asyncTransport);
+        delayedCall.setMetrics(metrics, endpointNormalizer);
+        delayedCall.setRequestCoalescer(requestCoalescer);
+        delayedCall.setExecutionEngine(executionEngine);
+        delayedCall.setJacksonRegistry(jacksonRegistry);
+        delayedCall.setdeserializationFeatureMap(deserializationFeatureMap);
         delayedCall.setMethodToCall(this.methodToCall);
         delayedCall.setUrl(this.getUrl());
         delayedCall.setRequestHeaders(this.getRequestHeaders());
         if(entity!=null && !entityClass.getClass().getCanonicalName().equalsIgnoreCase(Void.class.getCanonicalName())) delayedCall.setEntity(this.entity);
-        delayedCall.setCacheTime(0L);
+        delayedCall.setCacheTime(cacheTime);
+        delayedCall.setCacheControlPolicy(cacheControlPolicy);
+        delayedCall.setStreamingUpload(streamingUpload);
+        delayedCall.requestCompression = requestCompression;
+        delayedCall.compressionThreshold = compressionThreshold;
+        if(uploadBody instanceof File) delayedCall.setUploadBody((File) uploadBody);
+        delayedCall.bypassFreshness = true;
         if(!enableDelayedReprocess){
             delayedCall.setTaskCompletion(null);
             delayedCall.setTaskFailure(null);
@@ -976,16 +1833,216 @@ public class GenericRestCall<T, X, M> implements Runnable {
             if(taskFailure!=null) delayedCall.setTaskFailure(this.taskFailure);
             if(clientTaskFailure!=null) delayedCall.setClientTaskFailure(this.clientTaskFailure);
             if(serverTaskFailure!=null) delayedCall.setServerTaskFailure(this.serverTaskFailure);
+            delayedCall.previousResponseEntity = jsonResponseEntity;
+        }
+        refreshScheduler.schedule(getCachedFileName(), delayedCall);
+
+    }
+
+
+    /**
+     * Executes the call in its execution engine (the factory's one, for the calls created by a factory). The future
+     * completes with the RestResponse when the call ends, successful or not, after the callbacks were invoked; it
+     * only completes exceptionally if the call couldn't run. Cancelling the future aborts the request in flight and
+     * skips the callbacks. Dependent calls can be chained with thenCompose without blocking a thread.
+     * @return a CompletableFuture of the RestResponse.
+     */
+    public CompletableFuture<RestResponse<X, M>> executeAsync(){
+        return executeAsync(executionEngine);
+    }
+
+    /**
+     * Executes the call in its execution engine, aborting it if it doesn't complete in time. The future then
+     * completes exceptionally with a TimeoutException.
+     * @param timeout the maximum time.
+     * @param unit the unit of the timeout.
+     * @return a CompletableFuture of the RestResponse.
+     */
+    public CompletableFuture<RestResponse<X, M>> executeAsync(long timeout, TimeUnit unit){
+        RestFuture<RestResponse<X, M>> future = submit(executionEngine);
+        future.setTimeout(timeout, unit);
+        return future;
+    }
+
+    /**
+     * Executes the call in the given executor.
+     * @param executor the executor running the call.
+     * @return a CompletableFuture of the RestResponse.
+     */
+    public CompletableFuture<RestResponse<X, M>> executeAsync(Executor executor){
+        return submit(executor);
+    }
+
+    /**
+     * Runs the call in the executor. With an AsyncTransport, the request is sent first through the transport and
+     * the call runs once the response has arrived, so no thread waits for it.
+     */
+    private RestFuture<RestResponse<X, M>> submit(final Executor executor){
+        final RestFuture<RestResponse<X, M>> future = new RestFuture<>();
+        final Runnable completion = new Runnable() {
+            @Override
+            public void run() {
+                if(future.isDone()) return;
+                AbortableRequestFactory.Handle previous = AbortableRequestFactory.getCurrentHandle();
+                AbortableRequestFactory.setCurrentHandle(future.getHandle());
+                try {
+                    boolean successful = get();
+                    future.complete(getRestResponse(successful));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    AbortableRequestFactory.setCurrentHandle(previous);
+                }
+            }
+        };
+        try {
+            if(asyncTransport == null){
+                executor.execute(completion);
+            }
+            else{
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(future.isDone()) return;
+                        try {
+                            if(prefetch(executor, future, completion)) return;
+                        } catch (RuntimeException e) {
+                            future.completeExceptionally(e);
+                            return;
+                        }
+                        runWithPrefetched(completion);
+                    }
+                });
+            }
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the first request of the call through the AsyncTransport. When its response arrives, it is read in the
+     * executor and the call runs there as usual: its first exchange is answered with the prefetched response, so the
+     * cache, the callbacks and the subscribers behave as with a blocking request. Retries and second requests (IE:
+     * after a 304 whose cached entity is gone) are sent from the executor's thread. Calls served from a fresh
+     * cache, streamed uploads, hedged requests and templates with interceptors (IE: request compression) are not
+     * prefetched, and prefetched requests are never coalesced.
+     * @return true if the request was sent, and the executor will run the call once it is answered.
+     */
+    private boolean prefetch(final Executor executor, final RestFuture<RestResponse<X, M>> future, final Runnable completion){
+        HttpMethod method = getMethodToCall();
+        if(method != HttpMethod.GET && method != HttpMethod.POST && method != HttpMethod.PUT && method != HttpMethod.DELETE){
+            return false;
+        }
+        boolean noResponseBody = jsonResponseEntityClass.equals(Void.class);
+        Object body = method == HttpMethod.GET ? null : method == HttpMethod.DELETE ? entity : getRequestBody();
+        if(isStreamedBody(body) || requestCompression || (method == HttpMethod.GET && hedgingPolicy != null)
+                || !restTemplate.getInterceptors().isEmpty()){
+            return false;
+        }
+        if(!noResponseBody && method != HttpMethod.DELETE && enableCache && !bypassFreshness && hasFreshCache()){
+            return false;
+        }
+        URI uri = getURI();
+        if(uri == null) return false;
+
+        HttpHeaders extraHeaders = null;
+        if(method == HttpMethod.GET && !noResponseBody && enableCache){
+            CacheMetadata metadata = getCacheMetadata();
+            extraHeaders = metadata == null ? null : metadata.toConditionalHeaders();
+        }
+        HttpHeaders headers = requestHeaders;
+        if(extraHeaders != null){
+            headers = new HttpHeaders();
+            headers.putAll(requestHeaders);
+            headers.putAll(extraHeaders);
+        }
+
+        String circuit;
+        try {
+            circuit = acquireCircuit();
+        } catch (CircuitBreakerOpenException e) {
+            // the call fails the same way from the executor, and is answered from the cache if it can be
+            return false;
+        }
+        Class<?> responseClass = noResponseBody ? Void.class : jsonResponseEntityClass;
+        final PrefetchedRequest request = new PrefetchedRequest(method, body, responseClass, extraHeaders, circuit,
+                acquireHostPermit(circuit), new JacksonRequestCallback(headers, body, body == null ? null : jacksonRegistry.getWriter(body.getClass())),
+                future.getHandle());
+
+        ListenableFuture<ClientHttpResponse> response;
+        try {
+            AsyncClientHttpRequest asyncRequest = asyncTransport.getRequestFactory().createAsyncRequest(uri, method);
+            request.callback.writeTo(asyncRequest);
+            response = asyncRequest.executeAsync();
+        } catch (IOException e) {
+            request.onResponse(null, e);
+            prefetched = request;
+            return false;
         }
-        delayedCall.execute(true);
+        future.getHandle().attach(response);
+        response.addCallback(new ListenableFutureCallback<ClientHttpResponse>() {
+            @Override
+            public void onSuccess(ClientHttpResponse result) {
+                resume(result, null);
+            }
+
+            @Override
+            public void onFailure(Throwable ex) {
+                resume(null, ex);
+            }
+
+            private void resume(final ClientHttpResponse result, final Throwable ex) {
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            request.onResponse(result, ex);
+                            prefetched = request;
+                            runWithPrefetched(completion);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    request.onResponse(result, ex);
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+        return true;
+    }
 
+    private void runWithPrefetched(Runnable completion){
+        try {
+            completion.run();
+        } finally {
+            prefetched = null;
+        }
     }
 
+    private RestResponse<X, M> getRestResponse(boolean successful){
+        RestResponse<X, M> response = new RestResponse<>();
+        response.setSuccessful(successful);
+        response.setStatus(responseStatus);
+        response.setHeaders(getResponseHeaders());
+        response.setFailure(failure);
+        response.setEntity(jsonResponseEntity);
+        if(!successful && errorResponse != null && !errorResponse.isEmpty()){
+            response.setErrorResponse(errorResponse);
+            if(!errorResponseEntityClass.equals(Void.class)){
+                response.setErrorBody(getErrorBody(errorResponseEntityClass, errorResponse));
+            }
+        }
+        return response;
+    }
 
+    /**
+     * Executes the call, in its execution engine or in the calling thread.
+     * @param asynchronously true to run the call in the execution engine.
+     * @throws RejectedExecutionException if the call should run asynchronously and the engine is full.
+     */
     public void execute(boolean asynchronously){
         if(asynchronously){
-            Thread thread = new Thread(this);
-            thread.start();
+            executionEngine.execute(this);
         }
         else{
             this.run();
@@ -995,28 +2052,19 @@ public class GenericRestCall<T, X, M> implements Runnable {
     public <T> T getErrorBody(Class<T> errorBodyClass, String jsonBody){
         try {
 
-            //JSONObject jsonObj = new JSONObject(jsonBody.toString());
-
             if(!errorBodyClass.getCanonicalName().equalsIgnoreCase(String.class.getCanonicalName())){
-                T errorBody = errorBodyClass.newInstance();
-                ObjectMapper mapper = new ObjectMapper();
-                errorBody = mapper.readValue(jsonBody, errorBodyClass);
-                return errorBody;
+                return jacksonRegistry.getReader(errorBodyClass).readValue(jsonBody);
             }
             else{
                 return (T)jsonBody;
             }
 
-        } catch (InstantiationException e) {
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
         } catch (JsonMappingException e) {
-            e.printStackTrace();
+            httpLog.debug("The error body can't be read", e);
         } catch (JsonParseException e) {
-            e.printStackTrace();
+            httpLog.debug("The error body can't be read", e);
         } catch (IOException e) {
-            e.printStackTrace();
+            httpLog.debug("The error body can't be read", e);
         }
         return null;
     }
@@ -1025,31 +2073,56 @@ public class GenericRestCall<T, X, M> implements Runnable {
         return this;
     }
 
+    private RestResults<X> createRestResults(X result, boolean success){
+        RestResults<X> results = new RestResults<>();
+        results.setSubscriberEntity(result);
+        results.setStatus(this.getResponseStatus().value());
+        results.setSuccessful(success);
+        return results;
+    }
+
+    /**
+     * Hands the results to every subscriber, in the subscriber scheduler if there is one. The results are kept for
+     * the Observable of the call.
+     */
     private void notifySubscribers(X result, boolean success){
+        final RestResults<X> results = createRestResults(result, success);
+        lastResults = results;
 
         if(mySubscribers!=null && mySubscribers.size()>0){
-            RestResults<X> results = new RestResults<>();
-            results.setSubscriberEntity(result);
-            results.setStatus(this.getResponseStatus().value());
-            results.setSuccessful(success);
-
-            //rx.Observable<RestResults<X>> observable = rx.Observable.just(results);
-            for(Action1<RestResults<X>> subscriber : mySubscribers ){
-                rx.Observable.just(results).subscribe(subscriber);
+            if(subscriberScheduler == null){
+                for(Action1<RestResults<X>> subscriber : mySubscribers){
+                    subscriber.call(results);
+                }
+                return;
             }
+            final List<Action1<RestResults<X>>> subscribers = new ArrayList<>(mySubscribers);
+            final Scheduler.Worker worker = subscriberScheduler.createWorker();
+            worker.schedule(new Action0() {
+                @Override
+                public void call() {
+                    try {
+                        for(Action1<RestResults<X>> subscriber : subscribers){
+                            try {
+                                subscriber.call(results);
+                            } catch (RuntimeException e) {
+                                httpLog.warn("A subscriber of {} failed", url, e);
+                            }
+                        }
+                    } finally {
+                        worker.unsubscribe();
+                    }
+                }
+            });
         }
 
     }
 
     public boolean get(){
-        if(EasyRest.isDebugMode()){
-            if(getRequestHeaders()!=null){
-                System.out.println("EasyRest - Request Headers");
-                System.out.println("EasyRest - URL : " + getUrl());
-                for(String s: getRequestHeaders().keySet()){
-                    System.out.println("EasyRest - "+s+":"+getRequestHeaders().get(s));
-                }
-            }
+        sharedResponse = false;
+        noStoreResponse = false;
+        if(httpLog.isTraceEnabled() && getRequestHeaders()!=null){
+            httpLog.trace("Request headers of {}: {}", getUrl(), getRequestHeaders());
         }
 
         if (this.getMethodToCall()==DefinitionsHttpMethods.METHOD_POST) {
@@ -1082,23 +2155,24 @@ public class GenericRestCall<T, X, M> implements Runnable {
 
     private void handleException(Exception e){
         failure = e;
-        System.out.println("The error was caused by the body "+entityClass.getCanonicalName());
-        System.out.println(" and the response " + jsonResponseEntityClass.getCanonicalName());
-        System.out.println(" in the url " + url);
-        e.printStackTrace();
+        if(e instanceof CircuitBreakerOpenException){
+            resilienceLog.debug("{}: {}", e.getMessage(), url);
+        }
+        else if(AbortableRequestFactory.isCurrentRequestAborted()){
+            httpLog.debug("Request aborted: {}", url);
+        }
+        else{
+            logFailure(e);
+        }
         this.result = false;
     }
 
     private <T extends HttpStatusCodeException> void handleException(T e){
         this.responseStatus = e.getStatusCode();
-        System.out.println("BAD:" + e.getResponseBodyAsString());
         errorResponse = e.getResponseBodyAsString();
         failure = e;
-        System.out.println("The error was caused by the body "+entityClass.getCanonicalName());
-        System.out.println(" and the response " + jsonResponseEntityClass.getCanonicalName());
-        System.out.println(" in the url " + url);
-        System.out.println(" with the response " + errorResponse);
-        e.printStackTrace();
+        logFailure(e);
+        httpLog.trace("Error body of {}: {}", url, errorResponse);
         this.result = false;
         if(e.getClass().getCanonicalName().equalsIgnoreCase(HttpClientErrorException.class.getCanonicalName())){
             //errorType = CLIENT_ERROR;
@@ -1110,6 +2184,16 @@ public class GenericRestCall<T, X, M> implements Runnable {
         }
     }
 
+    /**
+     * Logs a failed request. The failure is reported to the callbacks, so it is only logged at DEBUG level.
+     */
+    private void logFailure(Exception e){
+        if(httpLog.isDebugEnabled()){
+            httpLog.debug("Request failed - url: " + url + " body: " + entityClass.getCanonicalName()
+                    + " response: " + jsonResponseEntityClass.getCanonicalName(), e);
+        }
+    }
+
     private Object byteToObject(byte[] data){
         ByteArrayInputStream in = new ByteArrayInputStream(data);
         ObjectInputStream is = null;
@@ -1117,13 +2201,96 @@ public class GenericRestCall<T, X, M> implements Runnable {
             is = new ObjectInputStream(in);
             return is.readObject();
         } catch (IOException e) {
-            e.printStackTrace();
+            cacheLog.warn("The cached object can't be read", e);
             return null;
         } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+            cacheLog.warn("The cached object can't be read", e);
             return null;
         }
 
     }
 
+    /**
+     * The first request of a call, sent through the AsyncTransport, and its outcome once it is answered.
+     */
+    private final class PrefetchedRequest {
+
+        private final HttpMethod method;
+        private final Object body;
+        private final Class<?> responseClass;
+        private final HttpHeaders extraHeaders;
+        private final String circuit;
+        private final HostLimiter.Permit permit;
+        private final JacksonRequestCallback callback;
+        private final JacksonResponseExtractor<Object> extractor;
+        private final AbortableRequestFactory.Handle handle;
+        private final long start = System.nanoTime();
+        private ResponseEntity<?> response;
+        private RuntimeException failure;
+
+        PrefetchedRequest(HttpMethod method, Object body, Class<?> responseClass, HttpHeaders extraHeaders,
+                          String circuit, HostLimiter.Permit permit, JacksonRequestCallback callback,
+                          AbortableRequestFactory.Handle handle) {
+            this.method = method;
+            this.body = body;
+            this.responseClass = responseClass;
+            this.extraHeaders = extraHeaders;
+            this.circuit = circuit;
+            this.permit = permit;
+            this.callback = callback;
+            this.extractor = new JacksonResponseExtractor<>(responseClass.equals(Void.class) ? null
+                    : jacksonRegistry.getReader(responseClass, deserializationFeatureMap));
+            this.handle = handle;
+        }
+
+        /**
+         * @return true if this is the request the call is about to send.
+         */
+        boolean matches(HttpMethod method, Object body, Class<?> responseClass, HttpHeaders extraHeaders) {
+            return this.method == method && this.body == body && this.responseClass.equals(responseClass)
+                    && (this.extraHeaders == null ? extraHeaders == null : this.extraHeaders.equals(extraHeaders));
+        }
+
+        /**
+         * Reads the response as the RestTemplate would, then releases the host permit and records the outcome.
+         * @param clientResponse the response, or null if the request failed.
+         * @param error the failure of the request, or null if it was answered.
+         */
+        void onResponse(ClientHttpResponse clientResponse, Throwable error) {
+            try {
+                if(error != null){
+                    throw error instanceof IOException ? (IOException) error : new IOException(error.getMessage(), error);
+                }
+                try {
+                    ResponseErrorHandler errorHandler = restTemplate.getErrorHandler();
+                    if(errorHandler.hasError(clientResponse)) errorHandler.handleError(clientResponse);
+                    response = extractor.extractData(clientResponse);
+                } finally {
+                    clientResponse.close();
+                }
+            } catch (IOException e) {
+                failure = new ResourceAccessException("I/O error on " + method.name() + " request for \"" + url
+                        + "\": " + e.getMessage(), e);
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                if(permit != null) permit.release();
+                boolean aborted = handle.isAborted();
+                long duration = System.nanoTime() - start;
+                RestClientException restFailure = failure instanceof RestClientException ? (RestClientException) failure : null;
+                onCircuitResult(circuit, circuit != null && restFailure != null && circuitBreaker.isFailure(restFailure),
+                        TimeUnit.NANOSECONDS.toMillis(duration), aborted);
+                if(metrics != null && !aborted) recordRequest(method, response, restFailure, duration, callback, extractor);
+            }
+        }
+
+        /**
+         * @return the response.
+         * @throws RuntimeException the failure of the request, as the RestTemplate would have thrown it.
+         */
+        ResponseEntity<?> getResponse() {
+            if(failure != null) throw failure;
+            return response;
+        }
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses the request bodies with gzip and sets their Content-Encoding header. Bodies smaller than the
+ * threshold, or already encoded, are sent as they are, as compressing them costs more than it saves.
+ */
+public class GzipRequestInterceptor implements ClientHttpRequestInterceptor {
+
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private final int threshold;
+
+    public GzipRequestInterceptor() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold the minimum size of a compressed body, in bytes.
+     */
+    public GzipRequestInterceptor(int threshold) {
+        if(threshold<0){
+            throw new IllegalArgumentException("The compression threshold can't be negative");
+        }
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution) throws IOException {
+        HttpHeaders headers = request.getHeaders();
+        if(body.length == 0 || body.length < threshold || headers.getFirst(HttpHeaders.CONTENT_ENCODING) != null){
+            return execution.execute(request, body);
+        }
+        headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+        return execution.execute(request, compress(body));
+    }
+
+    private static byte[] compress(byte[] body) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(body.length / 4, 64));
+        GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        try {
+            gzip.write(body);
+        } finally {
+            gzip.close();
+        }
+        return compressed.toByteArray();
+    }
+}
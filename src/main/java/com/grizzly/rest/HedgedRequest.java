@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Races a request against a hedge sent after the hedge delay. The first response wins and the other request is
+ * aborted, releasing its connection. A failed request doesn't end the race while the other one is in flight.
+ */
+final class HedgedRequest<R> {
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EasyRest-hedge-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A single attempt of the request.
+     */
+    abstract static class Attempt<R> {
+        abstract ResponseEntity<R> send();
+    }
+
+    private final Attempt<R> attempt;
+    private final AbortableRequestFactory.Handle primary;
+    private final AbortableRequestFactory.Handle hedge;
+
+    private ResponseEntity<R> winner;
+    private AbortableRequestFactory.Handle winnerHandle;
+    private RuntimeException failure;
+    private int pending = 1;
+    // a lock instead of a monitor, so a virtual thread waiting for the race doesn't pin its carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition finished = lock.newCondition();
+
+    /**
+     * @param parent the handle of the calling thread, which also aborts both requests. Can be null.
+     */
+    private HedgedRequest(Attempt<R> attempt, AbortableRequestFactory.Handle parent) {
+        this.attempt = attempt;
+        this.primary = parent != null ? parent.createChild() : new AbortableRequestFactory.Handle();
+        this.hedge = parent != null ? parent.createChild() : new AbortableRequestFactory.Handle();
+    }
+
+    /**
+     * Sends the request in the current thread, and the hedge in the engine if the request is slow.
+     * @param attempt the request.
+     * @param policy the hedging policy.
+     * @param host the host key, for the hedge budget.
+     * @param engine the engine running the hedge. Hedges are skipped while its pool has no idle threads.
+     * @return the first response.
+     */
+    static <R> ResponseEntity<R> execute(Attempt<R> attempt, final HedgingPolicy policy, final String host,
+                                         final RestExecutionEngine engine) {
+        final HedgedRequest<R> request = new HedgedRequest<>(attempt, AbortableRequestFactory.getCurrentHandle());
+        policy.onRequest(host);
+
+        long start = System.currentTimeMillis();
+        ScheduledFuture<?> hedgeTask = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if((!engine.isVirtualThreads() && engine.getActiveCount() >= engine.getPoolSize())
+                        || !request.startHedge(policy, host)) return;
+                try {
+                    engine.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            request.run(request.hedge);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    request.fail(request.hedge, null);
+                }
+            }
+        }, policy.getCurrentDelay(), TimeUnit.MILLISECONDS);
+
+        request.run(request.primary);
+        hedgeTask.cancel(false);
+
+        ResponseEntity<R> response = request.await();
+        if(request.winnerHandle == request.hedge) policy.onHedgeWon();
+        else policy.recordLatency(System.currentTimeMillis() - start);
+        return response;
+    }
+
+    private void run(AbortableRequestFactory.Handle handle) {
+        AbortableRequestFactory.Handle previous = AbortableRequestFactory.getCurrentHandle();
+        AbortableRequestFactory.setCurrentHandle(handle);
+        try {
+            succeed(handle, attempt.send());
+        } catch (RuntimeException e) {
+            fail(handle, e);
+        } finally {
+            AbortableRequestFactory.setCurrentHandle(previous);
+        }
+    }
+
+    private boolean startHedge(HedgingPolicy policy, String host) {
+        lock.lock();
+        try {
+            if(winner != null || pending == 0 || !policy.tryHedge(host)) return false;
+            pending++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void succeed(AbortableRequestFactory.Handle handle, ResponseEntity<R> response) {
+        lock.lock();
+        try {
+            pending--;
+            if(winner == null){
+                winner = response;
+                winnerHandle = handle;
+                (handle == primary ? hedge : primary).abort();
+            }
+            finished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void fail(AbortableRequestFactory.Handle handle, RuntimeException e) {
+        lock.lock();
+        try {
+            pending--;
+            if(e != null && failure == null && !handle.isAborted()) failure = e;
+            finished.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ResponseEntity<R> await() {
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while(winner == null && pending > 0){
+                try {
+                    finished.await();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    primary.abort();
+                    hedge.abort();
+                }
+            }
+            if(winner != null) return winner;
+            if(failure != null) throw failure;
+            throw new ResourceAccessException("The request was interrupted");
+        } finally {
+            lock.unlock();
+            if(interrupted) Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a slow GET request gets a second, identical request (a hedge). The hedge is sent when the first
+ * request hasn't answered after the hedge delay; the first response wins and the other request is aborted.
+ *
+ * The delay can be fixed, or follow a percentile of the latencies observed by the policy, IE: the 95th, so only
+ * the slowest requests are hedged. Every host has a hedge budget: each request earns a fraction of a hedge and
+ * each hedge spends one, which caps the extra load sent to the host.
+ */
+public class HedgingPolicy {
+
+    private static final int WINDOW_SIZE = 256;
+    private static final int MIN_SAMPLES = 20;
+    private static final int RECOMPUTE_EVERY = 16;
+
+    private volatile long hedgeDelay = 100;
+    private volatile double percentile = 0;
+    private volatile double maxHedgeRatio = 0.1;
+    private volatile int maxHedgeTokens = 10;
+
+    private final RequestBudget budget = new RequestBudget();
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private int latencyCount = 0;
+    private int nextLatency = 0;
+    private volatile long percentileDelay = -1;
+
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private final AtomicLong hedgeWinCount = new AtomicLong();
+
+    public long getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Sets how long the first request can take before the hedge is sent. When a percentile is set, this delay is
+     * used until enough latencies have been observed.
+     * @param miliseconds the delay, in miliseconds.
+     */
+    public void setHedgeDelay(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The hedge delay can't be negative");
+        }
+        this.hedgeDelay = miliseconds;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    /**
+     * Makes the hedge delay follow a percentile of the observed latencies.
+     * @param percentile the percentile, IE: 95, or zero to always use the fixed delay.
+     */
+    public void setPercentile(double percentile) {
+        if(percentile<0 || percentile>=100){
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        this.percentile = percentile;
+        this.percentileDelay = -1;
+    }
+
+    public double getMaxHedgeRatio() {
+        return maxHedgeRatio;
+    }
+
+    /**
+     * Sets the hedge budget of every host.
+     * @param maxHedgeRatio the fraction of a hedge earned by every request, IE: 0.1 allows one hedge every ten
+     *                      requests.
+     * @param maxHedgeTokens the maximum amount of hedges saved, which is also the budget of a new host.
+     */
+    public void setHedgeBudget(double maxHedgeRatio, int maxHedgeTokens) {
+        if(maxHedgeRatio<0 || maxHedgeTokens<0){
+            throw new IllegalArgumentException("The hedge budget can't be negative");
+        }
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.maxHedgeTokens = maxHedgeTokens;
+    }
+
+    /**
+     * @return the current hedge delay, in miliseconds.
+     */
+    public long getCurrentDelay() {
+        long delay = percentileDelay;
+        return percentile > 0 && delay >= 0 ? delay : hedgeDelay;
+    }
+
+    /**
+     * Records the latency of a successful request.
+     * @param miliseconds the latency, in miliseconds.
+     */
+    void recordLatency(long miliseconds) {
+        if(percentile <= 0) return;
+        synchronized (latencies) {
+            latencies[nextLatency] = miliseconds;
+            nextLatency = (nextLatency + 1) % WINDOW_SIZE;
+            latencyCount++;
+            if(latencyCount >= MIN_SAMPLES && latencyCount % RECOMPUTE_EVERY == 0){
+                long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, WINDOW_SIZE));
+                Arrays.sort(sorted);
+                int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+                percentileDelay = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+            }
+        }
+    }
+
+    /**
+     * Registers a request to a host, earning part of a hedge.
+     * @param host the host key, IE: https://api.example.com:443.
+     */
+    void onRequest(String host) {
+        budget.deposit(host, maxHedgeRatio, maxHedgeTokens);
+    }
+
+    /**
+     * Spends a hedge from the budget of a host.
+     * @param host the host key, IE: https://api.example.com:443.
+     * @return true if the budget allowed the hedge.
+     */
+    boolean tryHedge(String host) {
+        if(!budget.withdraw(host, maxHedgeTokens)) return false;
+        hedgeCount.incrementAndGet();
+        return true;
+    }
+
+    void onHedgeWon() {
+        hedgeWinCount.incrementAndGet();
+    }
+
+    /**
+     * @return the amount of hedges sent.
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return the amount of hedges which answered before the first request.
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+}
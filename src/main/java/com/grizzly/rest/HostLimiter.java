@@ -0,0 +1,323 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the requests sent to every host: how many can be in flight at the same time, and how many can start per
+ * second, using a token bucket. Requests over the limits wait for their turn instead of failing. The default
+ * limits apply to every host, and can be overridden for specific hosts. Zero means no limit.
+ */
+public class HostLimiter {
+
+    private volatile int maxConcurrentRequests = 0;
+    private volatile double requestsPerSecond = 0;
+    private final ConcurrentMap<String, Limits> overrides = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    /**
+     * Sets the maximum amount of requests in flight to a single host.
+     * @param maxConcurrentRequests the limit, or zero for no limit.
+     */
+    public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+        if(maxConcurrentRequests<0){
+            throw new IllegalArgumentException("The concurrency limit can't be negative");
+        }
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        reconfigure();
+    }
+
+    public double getRequestsPerSecond() {
+        return requestsPerSecond;
+    }
+
+    /**
+     * Sets the maximum amount of requests started per second to a single host. Bursts of up to one second worth
+     * of requests are allowed after an idle period.
+     * @param requestsPerSecond the limit, or zero for no limit.
+     */
+    public void setRequestsPerSecond(double requestsPerSecond) {
+        if(requestsPerSecond<0){
+            throw new IllegalArgumentException("The rate limit can't be negative");
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        reconfigure();
+    }
+
+    /**
+     * Overrides the limits of a single host.
+     * @param host the host, IE: https://api.example.com:443 or api.example.com.
+     * @param maxConcurrentRequests the concurrency limit, or zero for no limit.
+     * @param requestsPerSecond the rate limit, or zero for no limit.
+     */
+    public void setHostLimits(String host, int maxConcurrentRequests, double requestsPerSecond) {
+        if(maxConcurrentRequests<0 || requestsPerSecond<0){
+            throw new IllegalArgumentException("The limits can't be negative");
+        }
+        overrides.put(host, new Limits(maxConcurrentRequests, requestsPerSecond));
+        reconfigure();
+    }
+
+    private void reconfigure() {
+        for(Host host : hosts.values()){
+            configure(host);
+        }
+    }
+
+    private void configure(Host host) {
+        Limits limits = overrides.get(host.key);
+        if(limits == null) limits = overrides.get(host.name);
+        if(limits == null) host.configure(maxConcurrentRequests, requestsPerSecond);
+        else host.configure(limits.maxConcurrentRequests, limits.requestsPerSecond);
+    }
+
+    /**
+     * Builds the key of the host of a request.
+     * @param uri the uri of the request.
+     * @return the scheme and authority of the uri, IE: https://api.example.com:443.
+     */
+    static String getHostKey(URI uri) {
+        return uri.getScheme() + "://" + uri.getAuthority();
+    }
+
+    /**
+     * Waits until a request to the host can be sent.
+     * @param uri the uri of the request.
+     * @return the Permit of the request, which must be released when the request ends.
+     * @throws ResourceAccessException if the thread is interrupted while waiting.
+     */
+    public Permit acquire(URI uri) {
+        Host host = getHost(uri);
+        try {
+            return host.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted while waiting for the limits of " + host.key);
+        }
+    }
+
+    private Host getHost(URI uri) {
+        String key = getHostKey(uri);
+        Host host = hosts.get(key);
+        if(host == null){
+            Host created = new Host(key, uri.getHost());
+            host = hosts.putIfAbsent(key, created);
+            if(host == null){
+                host = created;
+                configure(host);
+            }
+        }
+        return host;
+    }
+
+    /**
+     * @return the hosts seen by the limiter.
+     */
+    public Set<String> getHosts() {
+        return new HashSet<>(hosts.keySet());
+    }
+
+    /**
+     * @param host the host key, IE: https://api.example.com:443.
+     * @return the amount of requests waiting for the limits of the host.
+     */
+    public int getQueueDepth(String host) {
+        Host state = hosts.get(host);
+        return state == null ? 0 : state.waiting.get();
+    }
+
+    /**
+     * @return the amount of requests waiting for the limits of any host.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for(Host host : hosts.values()){
+            depth += host.waiting.get();
+        }
+        return depth;
+    }
+
+    /**
+     * @param host the host key, IE: https://api.example.com:443.
+     * @return the amount of requests in flight to the host.
+     */
+    public int getInFlightCount(String host) {
+        Host state = hosts.get(host);
+        return state == null ? 0 : state.inFlight.get();
+    }
+
+    /**
+     * @param host the host key, IE: https://api.example.com:443.
+     * @return the average time the requests to the host waited for the limits, in miliseconds.
+     */
+    public double getAverageWaitTime(String host) {
+        Host state = hosts.get(host);
+        if(state == null) return 0;
+        long acquired = state.acquired.get();
+        return acquired == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(state.totalWait.get()) / 1000.0 / acquired;
+    }
+
+    /**
+     * @param host the host key, IE: https://api.example.com:443.
+     * @return the longest time a request to the host waited for the limits, in miliseconds.
+     */
+    public long getMaxWaitTime(String host) {
+        Host state = hosts.get(host);
+        return state == null ? 0 : TimeUnit.NANOSECONDS.toMillis(state.maxWait.get());
+    }
+
+    private static final class Host {
+
+        private final String key;
+        private final String name;
+        private volatile AdjustableSemaphore permits;
+        private final AtomicInteger waiting = new AtomicInteger();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong acquired = new AtomicLong();
+        private final AtomicLong totalWait = new AtomicLong();
+        private final AtomicLong maxWait = new AtomicLong();
+
+        private double rate = 0;
+        private double tokens = 0;
+        private long lastRefill = System.nanoTime();
+
+        Host(String key, String name) {
+            this.key = key;
+            this.name = name;
+        }
+
+        synchronized void configure(int concurrencyLimit, double rate) {
+            if(concurrencyLimit == 0){
+                permits = null;
+            }
+            else{
+                AdjustableSemaphore resized = permits != null ? permits : new AdjustableSemaphore();
+                resized.resize(concurrencyLimit);
+                permits = resized;
+            }
+            if(this.rate != rate){
+                this.rate = rate;
+                this.tokens = Math.max(rate, 1);
+                this.lastRefill = System.nanoTime();
+            }
+        }
+
+        Permit acquire() throws InterruptedException {
+            long start = System.nanoTime();
+            waiting.incrementAndGet();
+            final AdjustableSemaphore semaphore = permits;
+            try {
+                if(semaphore != null) semaphore.acquire();
+                try {
+                    long delay = reserveToken();
+                    if(delay > 0) TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    if(semaphore != null) semaphore.release();
+                    throw e;
+                }
+            } finally {
+                waiting.decrementAndGet();
+            }
+            inFlight.incrementAndGet();
+
+            long wait = System.nanoTime() - start;
+            acquired.incrementAndGet();
+            totalWait.addAndGet(wait);
+            long max;
+            while(wait > (max = maxWait.get()) && !maxWait.compareAndSet(max, wait));
+
+            return new Permit() {
+                private boolean released = false;
+
+                @Override
+                public synchronized void release() {
+                    if(released) return;
+                    released = true;
+                    inFlight.decrementAndGet();
+                    if(semaphore != null) semaphore.release();
+                }
+            };
+        }
+
+        /**
+         * Takes a token from the bucket, going into debt if it is empty.
+         * @return how long the request must wait for its token, in nanoseconds.
+         */
+        private synchronized long reserveToken() {
+            if(rate <= 0) return 0;
+            long now = System.nanoTime();
+            double capacity = Math.max(rate, 1);
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            tokens -= 1;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * The right to send a request to a host. Releasing it lets the next request in; releasing it twice does
+     * nothing.
+     */
+    public interface Permit {
+        void release();
+    }
+
+    private static final class Limits {
+
+        private final int maxConcurrentRequests;
+        private final double requestsPerSecond;
+
+        Limits(int maxConcurrentRequests, double requestsPerSecond) {
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            this.requestsPerSecond = requestsPerSecond;
+        }
+    }
+
+    /**
+     * A fair semaphore whose amount of permits can be changed while it is in use.
+     */
+    private static final class AdjustableSemaphore extends Semaphore {
+
+        private int size = 0;
+
+        AdjustableSemaphore() {
+            super(0, true);
+        }
+
+        synchronized void resize(int newSize) {
+            int delta = newSize - size;
+            if(delta > 0) release(delta);
+            else if(delta < 0) reducePermits(-delta);
+            size = newSize;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A pooled Apache HttpClient shared by every rest call created from the same owner. Connections are kept alive
+ * and reused between calls, so TCP and TLS handshakes are paid once per connection instead of once per request.
+ * The client is created lazily with the configured limits; the limits can still be changed afterwards.
+ */
+public class HttpConnectionPool {
+
+    private int maxTotalConnections = 200;
+    private int maxConnectionsPerRoute = 20;
+    private long idleConnectionTimeout = 30000;
+    private long defaultKeepAliveTime = 30000;
+    private boolean contentCompression = true;
+
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * Sets the maximum amount of open connections, for all the hosts.
+     * @param maxTotalConnections a positive number.
+     */
+    public synchronized void setMaxTotalConnections(int maxTotalConnections) {
+        if(maxTotalConnections<1){
+            throw new IllegalArgumentException("The connection limit must be greater than zero");
+        }
+        this.maxTotalConnections = maxTotalConnections;
+        if(connectionManager!=null) connectionManager.setMaxTotal(maxTotalConnections);
+    }
+
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * Sets the maximum amount of open connections to a single host.
+     * @param maxConnectionsPerRoute a positive number.
+     */
+    public synchronized void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if(maxConnectionsPerRoute<1){
+            throw new IllegalArgumentException("The connection limit must be greater than zero");
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        if(connectionManager!=null) connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    }
+
+    public long getIdleConnectionTimeout() {
+        return idleConnectionTimeout;
+    }
+
+    /**
+     * Sets how long a connection can stay unused in the pool before being evicted. It only applies to clients
+     * created after the call.
+     * @param miliseconds the idle time, in miliseconds.
+     */
+    public synchronized void setIdleConnectionTimeout(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The idle timeout can't be negative");
+        }
+        this.idleConnectionTimeout = miliseconds;
+    }
+
+    public long getDefaultKeepAliveTime() {
+        return defaultKeepAliveTime;
+    }
+
+    /**
+     * Sets how long a connection is kept alive when the server doesn't send a Keep-Alive timeout.
+     * @param miliseconds the keep-alive time, in miliseconds.
+     */
+    public synchronized void setDefaultKeepAliveTime(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The keep-alive time can't be negative");
+        }
+        this.defaultKeepAliveTime = miliseconds;
+    }
+
+    public boolean isContentCompression() {
+        return contentCompression;
+    }
+
+    /**
+     * Enables or disables the compression of the responses. When enabled, the client sends
+     * "Accept-Encoding: gzip,deflate" and decompresses the responses while they are read, without buffering them.
+     * It only applies to clients created after the call.
+     * @param contentCompression true to accept compressed responses.
+     */
+    public synchronized void setContentCompression(boolean contentCompression) {
+        this.contentCompression = contentCompression;
+    }
+
+    /**
+     * Returns the shared client, creating it on the first call. Like HttpClients.createSystem(), the client honours
+     * the JVM's system properties (IE: http.proxyHost, http.agent, javax.net.ssl.trustStore).
+     * @return a pooled CloseableHttpClient.
+     */
+    public synchronized CloseableHttpClient getHttpClient() {
+        if(httpClient == null){
+            connectionManager = new PoolingHttpClientConnectionManager(RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                    .register("https", SSLConnectionSocketFactory.getSystemSocketFactory())
+                    .build());
+            connectionManager.setMaxTotal(maxTotalConnections);
+            connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+            HttpClientBuilder builder = HttpClients.custom().useSystemProperties();
+            if(!contentCompression) builder.disableContentCompression();
+
+            httpClient = builder
+                    .setConnectionManager(connectionManager)
+                    .setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+                        @Override
+                        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                            return duration > 0 ? duration : defaultKeepAliveTime;
+                        }
+                    })
+                    .evictExpiredConnections()
+                    .evictIdleConnections(idleConnectionTimeout, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+        return httpClient;
+    }
+
+    /**
+     * Returns the statistics of the whole pool.
+     * @return a PoolStats with the leased, pending and available connections.
+     */
+    public synchronized PoolStats getTotalStats() {
+        if(connectionManager == null) return new PoolStats(0, 0, 0, maxTotalConnections);
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Returns the statistics of every route the pool has connected to.
+     * @return a Map of route (IE: http://host:port) and its PoolStats.
+     */
+    public synchronized Map<String, PoolStats> getRouteStats() {
+        Map<String, PoolStats> stats = new HashMap<>();
+        if(connectionManager != null){
+            for(HttpRoute route : connectionManager.getRoutes()){
+                stats.put(route.getTargetHost().toURI(), connectionManager.getStats(route));
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Closes the client and all of its connections. A new client will be created if the pool is used again.
+     */
+    public synchronized void shutdown() {
+        if(httpClient != null){
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                RestLogger.getLogger(RestLogger.POOL).warn("The connection pool can't be closed", e);
+            }
+            httpClient = null;
+            connectionManager = null;
+        }
+    }
+}
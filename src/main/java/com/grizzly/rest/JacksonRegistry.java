@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds one configured ObjectMapper and caches the ObjectReader and ObjectWriter of every class it has seen.
+ * Readers and writers are immutable and thread safe, so they are shared by all the calls using the registry and
+ * Jackson's serializer and deserializer caches survive between requests. Deserialization features are applied by
+ * deriving readers, never by reconfiguring the shared mapper.
+ */
+public class JacksonRegistry {
+
+    private final ObjectMapper objectMapper;
+    private final MappingJackson2HttpMessageConverter converter;
+    private final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Map<DeserializationFeature, Boolean>, MappingJackson2HttpMessageConverter> featureConverters = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry with FAIL_ON_UNKNOWN_PROPERTIES and FAIL_ON_INVALID_SUBTYPE set to false.
+     */
+    public JacksonRegistry() {
+        this(createDefaultMapper());
+    }
+
+    /**
+     * Creates a registry around an already configured mapper. The mapper must not be reconfigured afterwards.
+     * @param objectMapper the mapper to be used.
+     */
+    public JacksonRegistry(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.converter = new MappingJackson2HttpMessageConverter(objectMapper);
+    }
+
+    private static ObjectMapper createDefaultMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.configure(DeserializationFeature.FAIL_ON_INVALID_SUBTYPE, false);
+        return mapper;
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    /**
+     * Returns the cached reader for a class.
+     * @param type the class to be read.
+     * @return an ObjectReader bound to the class.
+     */
+    public ObjectReader getReader(Class<?> type) {
+        ObjectReader reader = readers.get(type);
+        if(reader == null){
+            reader = objectMapper.readerFor(type);
+            ObjectReader previous = readers.putIfAbsent(type, reader);
+            if(previous != null) reader = previous;
+        }
+        return reader;
+    }
+
+    /**
+     * Returns a reader for a class with the given deserialization features enabled or disabled.
+     * @param type the class to be read.
+     * @param features the features to apply. Can be null or empty.
+     * @return an ObjectReader bound to the class.
+     */
+    public ObjectReader getReader(Class<?> type, Map<DeserializationFeature, Boolean> features) {
+        ObjectReader reader = getReader(type);
+        if(features != null && !features.isEmpty()){
+            for(Map.Entry<DeserializationFeature, Boolean> feature : features.entrySet()){
+                reader = Boolean.TRUE.equals(feature.getValue()) ? reader.with(feature.getKey()) : reader.without(feature.getKey());
+            }
+        }
+        return reader;
+    }
+
+    /**
+     * Returns the cached writer for a class. The writer doesn't close the streams it writes to.
+     * @param type the class to be written.
+     * @return an ObjectWriter bound to the class.
+     */
+    public ObjectWriter getWriter(Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        if(writer == null){
+            writer = objectMapper.writerFor(type).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            ObjectWriter previous = writers.putIfAbsent(type, writer);
+            if(previous != null) writer = previous;
+        }
+        return writer;
+    }
+
+    /**
+     * @return a message converter using the registry's mapper.
+     */
+    public MappingJackson2HttpMessageConverter getConverter() {
+        return converter;
+    }
+
+    /**
+     * Returns a message converter with the given deserialization features. Converters are cached per feature set,
+     * and use a copy of the registry's mapper.
+     * @param features the features to apply. Can be null or empty.
+     * @return a MappingJackson2HttpMessageConverter.
+     */
+    public MappingJackson2HttpMessageConverter getConverter(Map<DeserializationFeature, Boolean> features) {
+        if(features == null || features.isEmpty()) return converter;
+
+        Map<DeserializationFeature, Boolean> key = new EnumMap<>(features);
+        MappingJackson2HttpMessageConverter featureConverter = featureConverters.get(key);
+        if(featureConverter == null){
+            ObjectMapper mapper = objectMapper.copy();
+            for(Map.Entry<DeserializationFeature, Boolean> feature : key.entrySet()){
+                mapper.configure(feature.getKey(), feature.getValue());
+            }
+            featureConverter = new MappingJackson2HttpMessageConverter(mapper);
+            MappingJackson2HttpMessageConverter previous = featureConverters.putIfAbsent(key, featureConverter);
+            if(previous != null) featureConverter = previous;
+        }
+        return featureConverter;
+    }
+}
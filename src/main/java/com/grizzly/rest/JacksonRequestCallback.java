@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.web.client.RequestCallback;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes the request headers and, if present, the request body using a cached ObjectWriter. InputStream and File
+ * bodies are copied as they are. When the request doesn't buffer its body, the body is written straight to the
+ * connection while it is sent.
+ */
+class JacksonRequestCallback implements RequestCallback {
+
+    private static final List<MediaType> JSON_TYPES = Arrays.asList(MediaType.APPLICATION_JSON,
+            MediaType.parseMediaType("application/*+json"));
+
+    private final HttpHeaders headers;
+    private final Object body;
+    private final ObjectWriter writer;
+    private long bytesWritten = 0;
+    private final int compressionThreshold;
+
+    /**
+     * @param headers the headers to be sent. Can be null.
+     * @param body the body to be sent: an entity, an InputStream (closed once sent) or a File. If null, the
+     *             request is sent without a body.
+     * @param writer the writer for the entity. Only used if the body is an entity.
+     */
+    JacksonRequestCallback(HttpHeaders headers, Object body, ObjectWriter writer) {
+        this(headers, body, writer, -1);
+    }
+
+    /**
+     * @param compressionThreshold the minimum size of a streamed body to be compressed with gzip, in bytes, or -1
+     *                             to never compress it. The size of entities and streams is unknown before they
+     *                             are sent, so they are always compressed; files are compressed by their length.
+     */
+    JacksonRequestCallback(HttpHeaders headers, Object body, ObjectWriter writer, int compressionThreshold) {
+        this.headers = headers;
+        this.body = body;
+        this.writer = writer;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    @Override
+    public void doWithRequest(ClientHttpRequest request) throws IOException {
+        writeTo(request);
+    }
+
+    /**
+     * Writes the headers and the body to any outgoing message, IE: an asynchronous request.
+     * @param request the message to be written.
+     */
+    void writeTo(HttpOutputMessage request) throws IOException {
+        HttpHeaders requestHeaders = request.getHeaders();
+        if(headers != null) requestHeaders.putAll(headers);
+        if(requestHeaders.getAccept().isEmpty()) requestHeaders.setAccept(JSON_TYPES);
+
+        if(body != null){
+            if(requestHeaders.getContentType() == null) requestHeaders.setContentType(MediaType.APPLICATION_JSON);
+            if(request instanceof StreamingHttpOutputMessage){
+                final boolean compress = isCompressed(requestHeaders);
+                if(compress) requestHeaders.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+                ((StreamingHttpOutputMessage) request).setBody(new StreamingHttpOutputMessage.Body() {
+                    @Override
+                    public void writeTo(OutputStream outputStream) throws IOException {
+                        if(compress){
+                            GZIPOutputStream gzip = new GZIPOutputStream(outputStream, 8192);
+                            writeBody(gzip);
+                            gzip.finish();
+                        }
+                        else{
+                            writeBody(outputStream);
+                        }
+                    }
+                });
+            }
+            else{
+                writeBody(request.getBody());
+            }
+        }
+    }
+
+    private boolean isCompressed(HttpHeaders requestHeaders) {
+        if(compressionThreshold < 0 || requestHeaders.getFirst(HttpHeaders.CONTENT_ENCODING) != null) return false;
+        return !(body instanceof File) || ((File) body).length() >= compressionThreshold;
+    }
+
+    /**
+     * @return the amount of body bytes written, before compression.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private void writeBody(OutputStream target) throws IOException {
+        OutputStream outputStream = new FilterOutputStream(target) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesWritten++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesWritten += len;
+            }
+
+            @Override
+            public void close() throws IOException {
+                // the request closes its own stream
+                flush();
+            }
+        };
+        if(body instanceof InputStream){
+            copy((InputStream) body, outputStream);
+        }
+        else if(body instanceof File){
+            copy(new FileInputStream((File) body), outputStream);
+        }
+        else{
+            writer.writeValue(outputStream, body);
+        }
+    }
+
+    private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = inputStream.read(buffer)) != -1){
+                outputStream.write(buffer, 0, read);
+            }
+            outputStream.flush();
+        } finally {
+            inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.client.ResponseExtractor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Reads the response into a ResponseEntity using a cached ObjectReader. Responses without a body (IE: 204, 304 or
+ * an empty stream) produce an entity with a null body.
+ */
+class JacksonResponseExtractor<R> implements ResponseExtractor<ResponseEntity<R>> {
+
+    private final ObjectReader reader;
+    private long bytesRead = 0;
+    private long deserializationTime = -1;
+
+    /**
+     * @param reader the reader for the body. If null, the body is ignored.
+     */
+    JacksonResponseExtractor(ObjectReader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public ResponseEntity<R> extractData(ClientHttpResponse response) throws IOException {
+        HttpStatus status = response.getStatusCode();
+        R body = null;
+
+        if(reader != null && mayHaveBody(status, response.getHeaders().getContentLength())){
+            InputStream in = response.getBody();
+            if(in != null){
+                PushbackInputStream pushbackStream = new PushbackInputStream(new CountingInputStream(in));
+                int first = pushbackStream.read();
+                if(first != -1){
+                    pushbackStream.unread(first);
+                    long start = System.nanoTime();
+                    try {
+                        body = reader.readValue(pushbackStream);
+                    } catch (JsonProcessingException e) {
+                        throw new HttpMessageNotReadableException("Could not read JSON: " + e.getMessage(), e);
+                    } finally {
+                        deserializationTime = System.nanoTime() - start;
+                    }
+                }
+            }
+        }
+        return new ResponseEntity<>(body, response.getHeaders(), status);
+    }
+
+    /**
+     * @return the amount of body bytes read, after decompression.
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the time spent reading the body into an entity, in nanoseconds, or -1 if nothing was read. It
+     * includes waiting for the parts of the body still in transit.
+     */
+    long getDeserializationTime() {
+        return deserializationTime;
+    }
+
+    private boolean mayHaveBody(HttpStatus status, long contentLength) {
+        return status.value() >= 200 && status != HttpStatus.NO_CONTENT && status != HttpStatus.NOT_MODIFIED
+                && contentLength != 0;
+    }
+
+    private final class CountingInputStream extends FilterInputStream {
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = in.read();
+            if(read != -1) bytesRead++;
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = in.read(b, off, len);
+            if(read > 0) bytesRead += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(n);
+            bytesRead += skipped;
+            return skipped;
+        }
+    }
+}
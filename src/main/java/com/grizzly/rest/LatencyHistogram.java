@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations, in microseconds, in the style of HdrHistogram: values below 64 have their
+ * own bucket, and every power of two above is split in 32 buckets, so any recorded value is off by less than 3.2%.
+ * The buckets are fixed, so recording never allocates. Values above an hour are recorded as an hour.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 32;
+    private static final long MAX_VALUE = 3600L * 1000 * 1000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(getIndex(MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    private static int getIndex(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - 5);
+        return SUB_BUCKETS * shift + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the highest value recorded in a bucket.
+     */
+    private static long getHighestValue(int index) {
+        if(index < 2 * SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        return ((long) (index - SUB_BUCKETS * shift + 1) << shift) - 1;
+    }
+
+    /**
+     * @param microseconds the duration to be recorded. Negative values are ignored.
+     */
+    public void recordValue(long microseconds) {
+        if(microseconds < 0) return;
+        long value = Math.min(microseconds, MAX_VALUE);
+        counts.incrementAndGet(getIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while(value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)){
+            // another thread updated the maximum, check again
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the highest recorded value, in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, in microseconds.
+     */
+    public double getMean() {
+        long total = count.get();
+        return total == 0 ? 0 : (double) sum.get() / total;
+    }
+
+    /**
+     * Returns the value below which a percentage of the recorded values are. IE: getValueAtPercentile(99) is the
+     * p99 latency.
+     * @param percentile a percentile between 0 and 100.
+     * @return the value, in microseconds, or 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if(percentile < 0 || percentile > 100){
+            throw new IllegalArgumentException("The percentile must be between 0 and 100");
+        }
+        long total = 0;
+        long[] snapshot = new long[counts.length()];
+        for(int i = 0; i < snapshot.length; i++){
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if(total == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < snapshot.length; i++){
+            seen += snapshot[i];
+            if(seen >= target) return Math.min(getHighestValue(i), getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for(int i = 0; i < counts.length(); i++){
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " mean=" + Math.round(getMean()) + "us p50=" + getValueAtPercentile(50)
+                + "us p90=" + getValueAtPercentile(90) + "us p99=" + getValueAtPercentile(99) + "us max=" + getMax() + "us";
+    }
+}
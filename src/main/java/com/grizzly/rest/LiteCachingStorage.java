@@ -1,45 +1,552 @@
 package com.grizzly.rest;
 
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Created by FcoPardo on 3/9/16.
+ * In-memory cache of rest responses. Entries are spread over segments, each one an access ordered LinkedHashMap
+ * guarded by its own lock, so gets and puts are O(1) and threads only contend when they touch the same segment.
+ * When a segment is full, its least recently used entries are evicted. The cache is bounded either by the amount
+ * of entries or, if a Weigher is set, by the estimated weight of the entries.
+ * Entries can carry a time to live. Expired entries are dropped when read, and by a background sweep. Entries
+ * whose metadata holds the validators needed to revalidate them (an ETag or a Last-Modified) are retained for a
+ * while after expiring, so they can be renewed instead of downloaded again.
  */
 public class LiteCachingStorage {
 
-    private LinkedHashMap<String, Object> cachedRequests = new LinkedHashMap<>();
+    /**
+     * Estimates the weight (IE: the size in bytes) of a cached entity.
+     */
+    public interface Weigher {
+        long weigh(String name, Object entity);
+    }
+
+    private static final int MAX_SEGMENTS = 16;
+    private static final int MIN_ENTRIES_PER_SEGMENT = 16;
+
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EasyRest-cache-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile Segment[] segments;
+    // writes hold the read lock, so a resize (the write lock) never copies the segments while they change
+    private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
     private int cachingSize = 100;
-    private int cachedRequestAmount = 0;
+    private long maximumWeight = 0;
+    private volatile Weigher weigher;
 
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong expirationCount = new AtomicLong();
+
+    private long sweepInterval = 60000;
+    private volatile long staleRetention = 3600000;
+    private volatile ScheduledFuture<?> sweep;
+
+    public LiteCachingStorage() {
+        segments = createSegments();
+    }
 
     public void addRequest(String name, Object entity){
-        if(cachedRequestAmount < cachingSize) {
-            cachedRequests.put(name, entity);
-        }
-        else{
-            for(String s: cachedRequests.keySet()){
-                cachedRequests.remove(s);
-                break;
-            }
-            cachedRequests.put(name, entity);
+        addRequest(name, entity, 0);
+    }
+
+    /**
+     * Caches an entity for a limited time.
+     * @param name the key of the entity.
+     * @param entity the entity to be cached.
+     * @param timeToLive how long the entry is valid, in miliseconds. Zero or less means it never expires.
+     */
+    public void addRequest(String name, Object entity, long timeToLive){
+        addRequest(name, entity, timeToLive, null);
+    }
+
+    /**
+     * Caches an entity for a limited time, along with its metadata.
+     * @param name the key of the entity.
+     * @param entity the entity to be cached.
+     * @param timeToLive how long the entry is valid, in miliseconds. Zero or less means it never expires.
+     * @param metadata data needed to revalidate the entry once expired. Can be null.
+     */
+    public void addRequest(String name, Object entity, long timeToLive, Object metadata){
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(entity, weigh(name, entity), now, timeToLive > 0 ? now + timeToLive : 0, isRevalidatable(metadata), metadata);
+        resizeLock.readLock().lock();
+        try {
+            getSegment(name).put(name, entry);
+        } finally {
+            resizeLock.readLock().unlock();
         }
-        cachedRequestAmount++;
+        if(timeToLive > 0 && sweep == null) startSweep();
     }
 
     public Object getRequest(String name){
-        if (cachedRequests.containsKey(name)) return cachedRequests.get(name);
-        return null;
+        return getRequest(name, 0);
+    }
+
+    /**
+     * Returns a cached entity if it is younger than maxAge. Entries older than maxAge are kept, as other callers may
+     * accept them; entries past their own time to live are removed.
+     * @param name the key of the entity.
+     * @param maxAge the maximum age accepted, in miliseconds. Zero or less accepts any unexpired entry.
+     * @return the entity, or null.
+     */
+    public Object getRequest(String name, long maxAge){
+        Entry entry = getValidEntry(name, System.currentTimeMillis(), maxAge);
+        if(entry == null){
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.entity;
     }
 
     public boolean isCachedRequest(String name){
-        return cachedRequests.containsKey(name);
+        return isCachedRequest(name, 0);
+    }
+
+    /**
+     * @param name the key of the entity.
+     * @param maxAge the maximum age accepted, in miliseconds. Zero or less accepts any unexpired entry.
+     * @return true if there is an entry younger than maxAge.
+     */
+    public boolean isCachedRequest(String name, long maxAge){
+        return getValidEntry(name, System.currentTimeMillis(), maxAge) != null;
+    }
+
+    /**
+     * @param name the key of the entity.
+     * @return the time the entity was cached, in miliseconds since the epoch, or -1 if it isn't cached.
+     */
+    public long getCachingTime(String name){
+        Entry entry = getValidEntry(name, System.currentTimeMillis(), 0);
+        return entry == null ? -1 : entry.storedAt;
+    }
+
+    /**
+     * Returns a cached entity even if it has expired, as long as it is still retained.
+     * @param name the key of the entity.
+     * @return the entity, or null.
+     */
+    public Object getStaleRequest(String name){
+        Entry entry = getRetainedEntry(name, System.currentTimeMillis());
+        return entry == null ? null : entry.entity;
+    }
+
+    /**
+     * Returns the metadata of a cached entity, even if it has expired, as long as it is still retained.
+     * @param name the key of the entity.
+     * @return the metadata, or null.
+     */
+    public Object getMetadata(String name){
+        Entry entry = getRetainedEntry(name, System.currentTimeMillis());
+        return entry == null ? null : entry.metadata;
+    }
+
+    private Entry getRetainedEntry(String name, long now){
+        Segment segment = getSegment(name);
+        Entry entry = segment.get(name);
+        if(entry != null && !entry.isRetained(now, staleRetention)){
+            segment.removeExpired(name, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private Entry getValidEntry(String name, long now, long maxAge){
+        Entry entry = getRetainedEntry(name, now);
+        if(entry == null || entry.isExpired(now)) return null;
+        if(maxAge > 0 && now - entry.storedAt > maxAge) return null;
+        return entry;
+    }
+
+    public void removeRequest(String name){
+        resizeLock.readLock().lock();
+        try {
+            getSegment(name).remove(name);
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    public void clear(){
+        resizeLock.readLock().lock();
+        try {
+            for(Segment segment : segments){
+                segment.clear();
+            }
+        } finally {
+            resizeLock.readLock().unlock();
+        }
     }
 
     public int getCachingSize() {
         return cachingSize;
     }
 
-    public void setCachingSize(int cachingSize) {
+    /**
+     * Sets the maximum amount of cached entries. Current entries are kept, up to the new size.
+     * @param cachingSize a positive number.
+     */
+    public synchronized void setCachingSize(int cachingSize) {
+        if(cachingSize<1){
+            throw new IllegalArgumentException("The caching size must be greater than zero");
+        }
         this.cachingSize = cachingSize;
+        resize();
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Bounds the cache by the estimated weight of its entries instead of their amount. A maximum weight of zero
+     * goes back to bounding by amount.
+     * @param maximumWeight the maximum total weight.
+     * @param weigher estimates the weight of every entry. Required if maximumWeight is greater than zero.
+     */
+    public synchronized void setMaximumWeight(long maximumWeight, Weigher weigher) {
+        if(maximumWeight<0){
+            throw new IllegalArgumentException("The maximum weight can't be negative");
+        }
+        if(maximumWeight>0 && weigher == null){
+            throw new IllegalArgumentException("A weigher is required to bound the cache by weight");
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = maximumWeight>0 ? weigher : null;
+        resize();
+    }
+
+    /**
+     * @return the amount of cached entries.
+     */
+    public int size(){
+        int size = 0;
+        for(Segment segment : segments){
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the total weight of the cached entries. Equals size() if the cache is bounded by amount.
+     */
+    public long getWeight(){
+        long weight = 0;
+        for(Segment segment : segments){
+            weight += segment.weight();
+        }
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return the amount of entries removed because their time to live was over.
+     */
+    public long getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    public long getStaleRetention() {
+        return staleRetention;
+    }
+
+    /**
+     * Sets how long expired entries with validators are kept, waiting to be revalidated.
+     * @param miliseconds the retention time, in miliseconds.
+     */
+    public void setStaleRetention(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The stale retention can't be negative");
+        }
+        this.staleRetention = miliseconds;
+    }
+
+    public synchronized long getSweepInterval() {
+        return sweepInterval;
+    }
+
+    /**
+     * Sets how often expired entries are searched and removed.
+     * @param miliseconds the interval, in miliseconds.
+     */
+    public synchronized void setSweepInterval(long miliseconds) {
+        if(miliseconds<1){
+            throw new IllegalArgumentException("The sweep interval must be greater than zero");
+        }
+        this.sweepInterval = miliseconds;
+        if(sweep != null){
+            sweep.cancel(false);
+            sweep = null;
+            startSweep();
+        }
+    }
+
+    /**
+     * Removes every expired entry.
+     */
+    public void sweepExpired(){
+        long now = System.currentTimeMillis();
+        for(Segment segment : segments){
+            segment.sweep(now, staleRetention);
+        }
+    }
+
+    private synchronized void startSweep(){
+        if(sweep == null){
+            sweep = sweeper.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    sweepExpired();
+                }
+            }, sweepInterval, sweepInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the ratio of requests served from the cache, between 0 and 1.
+     */
+    public double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    private long weigh(String name, Object entity){
+        Weigher current = weigher;
+        return current == null ? 1 : current.weigh(name, entity);
+    }
+
+    private static boolean isRevalidatable(Object metadata){
+        return metadata instanceof CacheMetadata ? ((CacheMetadata) metadata).hasValidators() : metadata != null;
+    }
+
+    private Segment getSegment(String name){
+        return getSegment(segments, name);
+    }
+
+    private static Segment getSegment(Segment[] current, String name){
+        int hash = name.hashCode();
+        hash ^= (hash >>> 16);
+        return current[hash & (current.length - 1)];
+    }
+
+    private Segment[] createSegments(){
+        int amount = 1;
+        if(maximumWeight == 0){
+            while(amount < MAX_SEGMENTS && cachingSize / (amount * 2) >= MIN_ENTRIES_PER_SEGMENT){
+                amount *= 2;
+            }
+        }
+        else{
+            amount = MAX_SEGMENTS;
+        }
+
+        Segment[] created = new Segment[amount];
+        for(int i = 0; i < amount; i++){
+            created[i] = maximumWeight == 0
+                    ? new Segment((cachingSize + amount - 1) / amount, 0)
+                    : new Segment(Integer.MAX_VALUE, (maximumWeight + amount - 1) / amount);
+        }
+        return created;
+    }
+
+    /**
+     * Replaces the segments with new ones sized for the current bounds, keeping as many entries as they allow.
+     * The entries of every segment are copied oldest first, so its most recently used ones survive. Writes wait
+     * until the new segments are in place; reads keep using the old ones meanwhile.
+     */
+    private void resize(){
+        resizeLock.writeLock().lock();
+        try {
+            Segment[] created = createSegments();
+            for(Segment segment : segments){
+                for(Map.Entry<String, Entry> entry : segment.snapshot()){
+                    Entry value = entry.getValue();
+                    getSegment(created, entry.getKey()).put(entry.getKey(), new Entry(value.entity, weigh(entry.getKey(), value.entity),
+                            value.storedAt, value.expiresAt, value.revalidatable, value.metadata));
+                }
+            }
+            segments = created;
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    private static final class Entry {
+        final Object entity;
+        final long weight;
+        final long storedAt;
+        final long expiresAt;
+        final boolean revalidatable;
+        final Object metadata;
+
+        Entry(Object entity, long weight, long storedAt, long expiresAt, boolean revalidatable, Object metadata) {
+            this.entity = entity;
+            this.weight = weight;
+            this.storedAt = storedAt;
+            this.expiresAt = expiresAt;
+            this.revalidatable = revalidatable;
+            this.metadata = metadata;
+        }
+
+        boolean isExpired(long now) {
+            return expiresAt > 0 && now >= expiresAt;
+        }
+
+        boolean isRetained(long now, long staleRetention) {
+            return expiresAt == 0 || now < expiresAt + (revalidatable ? staleRetention : 0);
+        }
+    }
+
+    /**
+     * A slice of the cache with its own lock. The lock is a ReentrantLock rather than a monitor because the cache
+     * is read by every call: a virtual thread waiting for a busy segment parks instead of pinning its carrier.
+     */
+    private final class Segment {
+
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private final ReentrantLock lock = new ReentrantLock();
+        private final int maximumEntries;
+        private final long maximumSegmentWeight;
+        private long weight = 0;
+
+        Segment(int maximumEntries, long maximumSegmentWeight) {
+            this.maximumEntries = maximumEntries;
+            this.maximumSegmentWeight = maximumSegmentWeight;
+        }
+
+        Entry get(String name){
+            lock.lock();
+            try {
+                return entries.get(name);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String name, Entry entry){
+            lock.lock();
+            try {
+                Entry previous = entries.put(name, entry);
+                if(previous != null) weight -= previous.weight;
+                weight += entry.weight;
+
+                Iterator<Entry> iterator = entries.values().iterator();
+                while(iterator.hasNext() && (entries.size() > maximumEntries
+                        || (maximumSegmentWeight > 0 && weight > maximumSegmentWeight))){
+                    weight -= iterator.next().weight;
+                    iterator.remove();
+                    evictionCount.incrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(String name){
+            lock.lock();
+            try {
+                Entry previous = entries.remove(name);
+                if(previous != null) weight -= previous.weight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void removeExpired(String name, Entry expired){
+            lock.lock();
+            try {
+                if(entries.get(name) == expired){
+                    entries.remove(name);
+                    weight -= expired.weight;
+                    expirationCount.incrementAndGet();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void sweep(long now, long staleRetention){
+            lock.lock();
+            try {
+                Iterator<Entry> iterator = entries.values().iterator();
+                while(iterator.hasNext()){
+                    Entry entry = iterator.next();
+                    if(!entry.isRetained(now, staleRetention)){
+                        weight -= entry.weight;
+                        iterator.remove();
+                        expirationCount.incrementAndGet();
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear(){
+            lock.lock();
+            try {
+                entries.clear();
+                weight = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int size(){
+            lock.lock();
+            try {
+                return entries.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long weight(){
+            lock.lock();
+            try {
+                return weight;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        Iterable<Map.Entry<String, Entry>> snapshot(){
+            lock.lock();
+            try {
+                return new LinkedHashMap<>(entries).entrySet();
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 }
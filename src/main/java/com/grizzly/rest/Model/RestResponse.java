@@ -0,0 +1,91 @@
+package com.grizzly.rest.Model;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+/**
+ * The outcome of an asynchronous rest call: the response entity or the error body, with the status and headers.
+ */
+public class RestResponse<X, M> {
+
+    private X entity;
+    private M errorBody;
+    private String errorResponse;
+    private HttpStatus status;
+    private HttpHeaders headers;
+    private Exception failure;
+    private boolean successful;
+
+    public RestResponse(){
+
+    }
+
+    /**
+     * @return the response entity, from the service or from the cache. A failed call with a cache enabled carries
+     * the cached entity, if there was one.
+     */
+    public X getEntity() {
+        return entity;
+    }
+
+    public void setEntity(X entity) {
+        this.entity = entity;
+    }
+
+    /**
+     * @return the error body converted to the error class of the call, or null if there was none.
+     */
+    public M getErrorBody() {
+        return errorBody;
+    }
+
+    public void setErrorBody(M errorBody) {
+        this.errorBody = errorBody;
+    }
+
+    /**
+     * @return the raw error body, or null if there was none.
+     */
+    public String getErrorResponse() {
+        return errorResponse;
+    }
+
+    public void setErrorResponse(String errorResponse) {
+        this.errorResponse = errorResponse;
+    }
+
+    public HttpStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(HttpStatus status) {
+        this.status = status;
+    }
+
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    public void setHeaders(HttpHeaders headers) {
+        this.headers = headers;
+    }
+
+    /**
+     * @return the exception of a failed call, IE: a ResourceAccessException when the service was unreachable.
+     */
+    public Exception getFailure() {
+        return failure;
+    }
+
+    public void setFailure(Exception failure) {
+        this.failure = failure;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public void setSuccessful(boolean successful) {
+        this.successful = successful;
+    }
+}
@@ -0,0 +1,13 @@
+package com.grizzly.rest.Model;
+
+/**
+ * Implement this interface to receive the elements of a streamed response one by one, as they are parsed.
+ */
+public interface afterElementReceived<E> {
+
+    /**
+     * Implement the desired behavior for every element of the response.
+     * @param element the parsed element.
+     */
+    void onElementReceived(E element);
+}
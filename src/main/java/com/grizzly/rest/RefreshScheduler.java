@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Schedules the background refreshes of cached responses. There is at most one pending refresh per cache key,
+ * and a key isn't refreshed again until the minimum refresh interval has passed, so many cache hits on the same
+ * key cause a single request. Refreshes start after a random jitter, to spread the ones triggered together, and
+ * run in a small pool of low priority threads.
+ */
+public class RefreshScheduler {
+
+    private static final int MAX_TRACKED_KEYS = 10000;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EasyRest-refresh-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Set<String> pendingKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final ConcurrentMap<String, Long> lastRefreshes = new ConcurrentHashMap<>();
+    private final Random random = new Random();
+    private final RestExecutionEngine executionEngine;
+
+    private volatile long minimumInterval = 10000;
+    private volatile long maximumJitter = 1000;
+
+    private final AtomicLong scheduledCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    public RefreshScheduler() {
+        executionEngine = new RestExecutionEngine("EasyRest-refresh");
+        executionEngine.setPoolSize(2);
+        executionEngine.setThreadPriority(Thread.MIN_PRIORITY);
+        executionEngine.setRejectionPolicy(new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public long getMinimumInterval() {
+        return minimumInterval;
+    }
+
+    /**
+     * Sets the minimum time between two refreshes of the same key.
+     * @param miliseconds the interval, in miliseconds.
+     */
+    public void setMinimumInterval(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The refresh interval can't be negative");
+        }
+        this.minimumInterval = miliseconds;
+    }
+
+    public long getMaximumJitter() {
+        return maximumJitter;
+    }
+
+    /**
+     * Sets the maximum random delay before a refresh starts.
+     * @param miliseconds the maximum delay, in miliseconds. Zero starts the refreshes right away.
+     */
+    public void setMaximumJitter(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The jitter can't be negative");
+        }
+        this.maximumJitter = miliseconds;
+    }
+
+    /**
+     * Returns the low priority engine running the refreshes.
+     * @return a RestExecutionEngine.
+     */
+    public RestExecutionEngine getExecutionEngine() {
+        return executionEngine;
+    }
+
+    /**
+     * Schedules a refresh, unless one is already pending for the key or the key was refreshed less than the
+     * minimum interval ago.
+     * @param key the cache key of the refreshed response.
+     * @param refresh the task doing the refresh. It runs synchronously in a refresh thread.
+     * @return true if the refresh was scheduled.
+     */
+    public boolean schedule(final String key, final Runnable refresh) {
+        Long lastRefresh = lastRefreshes.get(key);
+        if(lastRefresh != null && System.currentTimeMillis() - lastRefresh < minimumInterval){
+            skippedCount.incrementAndGet();
+            return false;
+        }
+        if(!pendingKeys.add(key)){
+            skippedCount.incrementAndGet();
+            return false;
+        }
+
+        final Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    refresh.run();
+                } finally {
+                    lastRefreshes.put(key, System.currentTimeMillis());
+                    pendingKeys.remove(key);
+                }
+            }
+        };
+
+        long jitter = maximumJitter;
+        long delay = jitter > 0 ? (long) (random.nextDouble() * jitter) : 0;
+        try {
+            if(delay > 0){
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        submit(key, task);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+            else if(!submit(key, task)){
+                return false;
+            }
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            return false;
+        }
+        scheduledCount.incrementAndGet();
+        if(lastRefreshes.size() > MAX_TRACKED_KEYS) forgetOldRefreshes();
+        return true;
+    }
+
+    private boolean submit(String key, Runnable task) {
+        try {
+            executionEngine.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            RestLogger.getLogger(RestLogger.CACHE).warn("Cache refresh rejected: {}", key);
+            return false;
+        }
+    }
+
+    private void forgetOldRefreshes() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Long>> iterator = lastRefreshes.entrySet().iterator();
+        while(iterator.hasNext()){
+            if(now - iterator.next().getValue() >= minimumInterval) iterator.remove();
+        }
+    }
+
+    /**
+     * @return the amount of refreshes waiting for their jitter or for a thread, or running.
+     */
+    public int getPendingCount() {
+        return pendingKeys.size();
+    }
+
+    /**
+     * @return the amount of refreshes scheduled.
+     */
+    public long getScheduledCount() {
+        return scheduledCount.get();
+    }
+
+    /**
+     * @return the amount of refreshes skipped because one was pending or too recent.
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Stops the refresh threads. Pending refreshes are still executed.
+     */
+    public void shutdown() {
+        executionEngine.shutdown();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A per host budget of extra requests, IE: retries or hedges. Every regular request earns a fraction of an extra
+ * request and every extra request spends a whole one, so the extra load is a bounded fraction of the normal load.
+ */
+class RequestBudget {
+
+    private final ConcurrentMap<String, double[]> tokens = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a regular request to a host.
+     * @param host the host key.
+     * @param ratio the fraction of an extra request earned.
+     * @param maxTokens the maximum amount of extra requests saved, which is also the budget of a new host.
+     */
+    void deposit(String host, double ratio, int maxTokens) {
+        double[] hostTokens = getTokens(host, maxTokens);
+        synchronized (hostTokens) {
+            hostTokens[0] = Math.min(maxTokens, hostTokens[0] + ratio);
+        }
+    }
+
+    /**
+     * Spends an extra request from the budget of a host.
+     * @param host the host key.
+     * @param maxTokens the budget of a new host.
+     * @return true if the budget allowed the extra request.
+     */
+    boolean withdraw(String host, int maxTokens) {
+        double[] hostTokens = getTokens(host, maxTokens);
+        synchronized (hostTokens) {
+            if(hostTokens[0] < 1) return false;
+            hostTokens[0] -= 1;
+            return true;
+        }
+    }
+
+    private double[] getTokens(String host, int maxTokens) {
+        double[] hostTokens = tokens.get(host);
+        if(hostTokens == null){
+            double[] created = new double[]{maxTokens};
+            hostTokens = tokens.putIfAbsent(host, created);
+            if(hostTokens == null) hostTokens = created;
+        }
+        return hostTokens;
+    }
+}
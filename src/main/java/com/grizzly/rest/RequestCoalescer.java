@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes identical requests share a single network call. The first call for a key is sent; calls arriving with
+ * the same key while it is in flight wait for it and receive the same response, or the same exception.
+ * GET requests are coalesced; POST requests only after setPostCoalescing(true).
+ */
+public class RequestCoalescer {
+
+    /**
+     * A request which can be shared. After execution, isShared() tells if the response came from another call.
+     */
+    static abstract class Request<R> {
+
+        private boolean shared = false;
+
+        abstract ResponseEntity<R> send();
+
+        boolean isShared() {
+            return shared;
+        }
+    }
+
+    private static final class Flight {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private ResponseEntity<?> response;
+        private RuntimeException failure;
+    }
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private volatile boolean postCoalescing = false;
+
+    public boolean isPostCoalescing() {
+        return postCoalescing;
+    }
+
+    /**
+     * Lets identical POST requests of calls with caching enabled share a single network call too. Only enable it
+     * when those requests are idempotent (IE: searches sent as POST), as the server receives just one of them.
+     * @param postCoalescing true to coalesce POST requests.
+     */
+    public void setPostCoalescing(boolean postCoalescing) {
+        this.postCoalescing = postCoalescing;
+    }
+
+    /**
+     * Sends the request, or waits for the identical one already in flight.
+     * @param key the identity of the request.
+     * @param request the request to be sent if there isn't one in flight.
+     * @return the response of the request.
+     */
+    <R> ResponseEntity<R> execute(String key, Request<R> request) {
+        Flight flight = new Flight();
+        Flight current = flights.putIfAbsent(key, flight);
+
+        if(current == null){
+            sentCount.incrementAndGet();
+            try {
+                flight.response = request.send();
+                return (ResponseEntity<R>) flight.response;
+            } catch (RuntimeException e) {
+                flight.failure = e;
+                throw e;
+            } finally {
+                if(flight.response == null && flight.failure == null){
+                    flight.failure = new ResourceAccessException("The identical request in flight didn't finish");
+                }
+                flights.remove(key, flight);
+                flight.done.countDown();
+            }
+        }
+
+        coalescedCount.incrementAndGet();
+        try {
+            current.done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceAccessException("Interrupted while waiting for an identical request in flight");
+        }
+        request.shared = true;
+        if(current.failure != null) throw current.failure;
+        return (ResponseEntity<R>) current.response;
+    }
+
+    /**
+     * @return the amount of requests currently in flight.
+     */
+    public int getInFlightCount() {
+        return flights.size();
+    }
+
+    /**
+     * @return the amount of requests actually sent.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return the amount of requests which received the response of an identical request.
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+}
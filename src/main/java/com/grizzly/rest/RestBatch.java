@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.HttpStatus;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Runs a group of rest calls with at most a given amount of them in flight. Every finished call starts the next
+ * one, so there is no thread waiting to coordinate them and only the calls in flight take a thread. The result of
+ * every call, successful or not, is kept separately, in the order the calls were given.
+ * The executor must throw a RejectedExecutionException when it can't take a call: a call run by the submitting
+ * thread would start the next one from inside it, and a dropped call would never finish. A rejected call fails.
+ */
+public class RestBatch {
+
+    private final List<GenericRestCall<?, ?, ?>> calls;
+    private final AtomicReferenceArray<Result> results;
+    private final Executor executor;
+    private final AtomicInteger nextIndex = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final CountDownLatch remaining;
+    private volatile boolean cancelled = false;
+
+    RestBatch(Collection<? extends GenericRestCall<?, ?, ?>> calls, Executor executor) {
+        this.calls = new ArrayList<GenericRestCall<?, ?, ?>>(calls);
+        this.results = new AtomicReferenceArray<>(this.calls.size());
+        this.executor = executor;
+        this.remaining = new CountDownLatch(this.calls.size());
+    }
+
+    /**
+     * Starts the first calls of the batch.
+     * @param parallelism the maximum amount of calls in flight.
+     */
+    void start(int parallelism) {
+        if(parallelism<1){
+            throw new IllegalArgumentException("The parallelism must be greater than zero");
+        }
+        for(int i = 0; i < parallelism && i < calls.size(); i++){
+            launchNext();
+        }
+    }
+
+    private void launchNext() {
+        int index;
+        while((index = nextIndex.getAndIncrement()) < calls.size()){
+            if(cancelled){
+                complete(index, false, new CancellationException("The batch was cancelled"));
+                continue;
+            }
+            try {
+                executor.execute(new CallTask(index));
+                return;
+            } catch (RejectedExecutionException e) {
+                complete(index, false, e);
+            }
+        }
+    }
+
+    private void complete(int index, boolean successful, Exception failure) {
+        results.set(index, new Result(calls.get(index), successful, failure));
+        if(!successful) failedCount.incrementAndGet();
+        remaining.countDown();
+    }
+
+    private final class CallTask implements Runnable {
+
+        private final int index;
+
+        CallTask(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Runs the call. Whatever it throws, even an Error, the call is completed and the next one started, so
+         * the batch never waits for a call which is gone.
+         */
+        @Override
+        public void run() {
+            GenericRestCall<?, ?, ?> call = calls.get(index);
+            boolean successful = false;
+            Exception failure = null;
+            try {
+                successful = call.get();
+                if(!successful) failure = call.getFailure();
+            } catch (RuntimeException e) {
+                failure = e;
+            } catch (Error e) {
+                failure = new ExecutionException(e);
+                throw e;
+            } finally {
+                try {
+                    complete(index, successful, failure);
+                } finally {
+                    launchNext();
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until every call of the batch has finished.
+     */
+    public void await() throws InterruptedException {
+        remaining.await();
+    }
+
+    /**
+     * Waits until every call of the batch has finished, or the timeout expires.
+     * @param timeout the maximum time to wait.
+     * @param unit the unit of the timeout.
+     * @return true if every call finished.
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return remaining.await(timeout, unit);
+    }
+
+    /**
+     * Stops starting calls. The calls in flight finish normally; the rest fail with a CancellationException.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isDone() {
+        return remaining.getCount() == 0;
+    }
+
+    /**
+     * @return the amount of calls of the batch.
+     */
+    public int size() {
+        return calls.size();
+    }
+
+    /**
+     * @return the amount of calls which have finished, successfully or not.
+     */
+    public int getCompletedCount() {
+        return calls.size() - (int) remaining.getCount();
+    }
+
+    /**
+     * @return the amount of calls which have failed.
+     */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Returns the results of the calls, in the order the calls were given. Calls which haven't finished yet have
+     * a null result.
+     * @return an unmodifiable list of results.
+     */
+    public List<Result> getResults() {
+        List<Result> copy = new ArrayList<>(results.length());
+        for(int i = 0; i < results.length(); i++){
+            copy.add(results.get(i));
+        }
+        return Collections.unmodifiableList(copy);
+    }
+
+    /**
+     * @return the results of the calls which have failed.
+     */
+    public List<Result> getFailures() {
+        List<Result> failures = new ArrayList<>();
+        for(int i = 0; i < results.length(); i++){
+            Result result = results.get(i);
+            if(result != null && !result.isSuccessful()) failures.add(result);
+        }
+        return failures;
+    }
+
+    /**
+     * The outcome of a single call of the batch.
+     */
+    public static class Result {
+
+        private final GenericRestCall<?, ?, ?> call;
+        private final boolean successful;
+        private final Exception failure;
+
+        Result(GenericRestCall<?, ?, ?> call, boolean successful, Exception failure) {
+            this.call = call;
+            this.successful = successful;
+            this.failure = failure;
+        }
+
+        /**
+         * @return the call, to read its response entity, headers or error body.
+         */
+        public GenericRestCall<?, ?, ?> getCall() {
+            return call;
+        }
+
+        public boolean isSuccessful() {
+            return successful;
+        }
+
+        /**
+         * @return the exception which made the call fail, or null if there was none. An Error thrown by the call
+         * is wrapped in an ExecutionException.
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+
+        public HttpStatus getResponseStatus() {
+            return call.getResponseStatus();
+        }
+    }
+}
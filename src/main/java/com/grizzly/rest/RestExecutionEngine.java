@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the asynchronous work of the rest calls (the calls themselves, the cache writes and the cache refreshes)
+ * in a bounded pool of named daemon threads. Tasks wait in a bounded queue when every thread is busy; when the
+ * queue is full, the rejection policy decides what happens. The default policy throws a RejectedExecutionException,
+ * which the asynchronous calls report as a failure (IE: executeAsync returns a failed future). CallerRunsPolicy
+ * slows down the producer instead, but it turns every asynchronous call into a blocking one while the engine is full.
+ * On Java 21 or newer the engine can run every task in its own virtual thread instead, see setVirtualThreads.
+ */
+public class RestExecutionEngine implements Executor {
+
+    private static final AtomicInteger engineNumber = new AtomicInteger(1);
+
+    private int poolSize = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+    private int queueCapacity = 1000;
+    private long keepAliveTime = 60000;
+    private String threadNamePrefix;
+    private int threadPriority = Thread.NORM_PRIORITY;
+    private volatile RejectedExecutionHandler rejectionPolicy = new ThreadPoolExecutor.AbortPolicy();
+    // set while a task is submitted through the rejecting executor, which never applies the rejection policy
+    private final ThreadLocal<Boolean> rejecting = new ThreadLocal<>();
+    private final RejectedExecutionHandler rejectionHandler = new RejectedExecutionHandler() {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+            if(rejecting.get() != null){
+                throw new RejectedExecutionException("The execution engine " + threadNamePrefix + " is full");
+            }
+            rejectionPolicy.rejectedExecution(task, pool);
+        }
+    };
+    private final Executor rejectingExecutor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            rejecting.set(Boolean.TRUE);
+            try {
+                RestExecutionEngine.this.execute(task);
+            } finally {
+                rejecting.remove();
+            }
+        }
+    };
+
+    private volatile ThreadPoolExecutor executor;
+    private volatile boolean virtualThreads = false;
+    private volatile ExecutorService virtualExecutor;
+    private final AtomicInteger activeVirtualThreads = new AtomicInteger();
+    private final AtomicLong completedVirtualTasks = new AtomicLong();
+
+    public RestExecutionEngine() {
+        this("EasyRest-" + engineNumber.getAndIncrement());
+    }
+
+    /**
+     * @param threadNamePrefix the prefix of the names of the worker threads.
+     */
+    public RestExecutionEngine(String threadNamePrefix) {
+        this.threadNamePrefix = threadNamePrefix;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Sets the maximum amount of worker threads.
+     * @param poolSize a positive number.
+     */
+    public synchronized void setPoolSize(int poolSize) {
+        if(poolSize<1){
+            throw new IllegalArgumentException("The pool size must be greater than zero");
+        }
+        if(executor != null){
+            if(poolSize > executor.getMaximumPoolSize()){
+                executor.setMaximumPoolSize(poolSize);
+                executor.setCorePoolSize(poolSize);
+            }
+            else{
+                executor.setCorePoolSize(poolSize);
+                executor.setMaximumPoolSize(poolSize);
+            }
+        }
+        this.poolSize = poolSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Sets the amount of tasks which can wait for a free thread. It only applies before the first task is run.
+     * @param queueCapacity a positive number.
+     */
+    public synchronized void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity<1){
+            throw new IllegalArgumentException("The queue capacity must be greater than zero");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Sets how long an idle worker thread is kept before being stopped.
+     * @param miliseconds the idle time, in miliseconds.
+     */
+    public synchronized void setKeepAliveTime(long miliseconds) {
+        if(miliseconds<1){
+            throw new IllegalArgumentException("The keep-alive time must be greater than zero");
+        }
+        this.keepAliveTime = miliseconds;
+        if(executor != null) executor.setKeepAliveTime(miliseconds, TimeUnit.MILLISECONDS);
+    }
+
+    public int getThreadPriority() {
+        return threadPriority;
+    }
+
+    /**
+     * Sets the priority of the worker threads. It only applies to threads created after the call.
+     * @param threadPriority a priority between Thread.MIN_PRIORITY and Thread.MAX_PRIORITY.
+     */
+    public synchronized void setThreadPriority(int threadPriority) {
+        if(threadPriority < Thread.MIN_PRIORITY || threadPriority > Thread.MAX_PRIORITY){
+            throw new IllegalArgumentException("The thread priority must be between " + Thread.MIN_PRIORITY
+                    + " and " + Thread.MAX_PRIORITY);
+        }
+        this.threadPriority = threadPriority;
+    }
+
+    public RejectedExecutionHandler getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    /**
+     * Sets what to do with a task when both the pool and the queue are full. Any of the ThreadPoolExecutor
+     * policies can be used; the default is AbortPolicy. With CallerRunsPolicy, execute(true), executeAsync and the
+     * observables subscribed on the engine run in the submitting thread and block it while the engine is full.
+     * @param rejectionPolicy the policy to be used.
+     */
+    public synchronized void setRejectionPolicy(RejectedExecutionHandler rejectionPolicy) {
+        if(rejectionPolicy == null){
+            throw new IllegalArgumentException("The rejection policy can't be null");
+        }
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * Returns an Executor running its tasks in this engine, which throws a RejectedExecutionException when the
+     * engine is full instead of applying the rejection policy. Used by the tasks which must neither run in the
+     * submitting thread nor be dropped, IE: the calls of a RestBatch.
+     * @return the rejecting executor.
+     */
+    Executor getRejectingExecutor() {
+        return rejectingExecutor;
+    }
+
+    /**
+     * @return the amount of tasks the engine can hold at once, running or queued. Unbounded with virtual threads.
+     */
+    public int getCapacity() {
+        if(virtualThreads) return Integer.MAX_VALUE;
+        ThreadPoolExecutor current = executor;
+        if(current == null) return poolSize + queueCapacity;
+        BlockingQueue<Runnable> queue = current.getQueue();
+        return current.getMaximumPoolSize() + queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads, IE: Java 21 or newer.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return VirtualThreads.SUPPORTED;
+    }
+
+    /**
+     * @return true if the tasks run in virtual threads.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Runs every task in a new virtual thread instead of the bounded pool, when the JVM supports them. Blocking
+     * tasks then park their virtual thread instead of holding a platform thread, so tens of thousands of calls can
+     * wait at once; the pool size, the queue and the rejection policy don't apply. On older JVMs the bounded pool
+     * keeps being used. Tasks already running are not moved.
+     * @param virtualThreads true to use virtual threads when available.
+     */
+    public synchronized void setVirtualThreads(boolean virtualThreads) {
+        if(virtualThreads && !VirtualThreads.SUPPORTED){
+            RestLogger.getLogger(RestLogger.POOL).info("Virtual threads aren't supported by this JVM, {} keeps its thread pool",
+                    threadNamePrefix);
+            virtualThreads = false;
+        }
+        this.virtualThreads = virtualThreads;
+        if(!virtualThreads && virtualExecutor != null){
+            virtualExecutor.shutdown();
+            virtualExecutor = null;
+        }
+    }
+
+    private ExecutorService getVirtualExecutor() {
+        ExecutorService current = virtualExecutor;
+        if(current != null || !virtualThreads) return current;
+        return createVirtualExecutor();
+    }
+
+    private synchronized ExecutorService createVirtualExecutor() {
+        if(virtualExecutor == null && virtualThreads){
+            virtualExecutor = VirtualThreads.newExecutor(threadNamePrefix + "-virtual-");
+        }
+        return virtualExecutor;
+    }
+
+    private ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor current = executor;
+        if(current != null && !current.isShutdown()) return current;
+        return createExecutor();
+    }
+
+    private synchronized ThreadPoolExecutor createExecutor() {
+        if(executor == null || executor.isShutdown()){
+            executor = new ThreadPoolExecutor(poolSize, poolSize, keepAliveTime, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+
+                private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadNamePrefix + "-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    thread.setPriority(threadPriority);
+                    return thread;
+                }
+            }, rejectionHandler);
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        ExecutorService virtual = getVirtualExecutor();
+        if(virtual == null){
+            getExecutor().execute(task);
+            return;
+        }
+        virtual.execute(new Runnable() {
+            @Override
+            public void run() {
+                activeVirtualThreads.incrementAndGet();
+                try {
+                    task.run();
+                } finally {
+                    activeVirtualThreads.decrementAndGet();
+                    completedVirtualTasks.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    public <V> Future<V> submit(Callable<V> task) {
+        FutureTask<V> future = new FutureTask<>(task);
+        execute(future);
+        return future;
+    }
+
+    public Future<?> submit(Runnable task) {
+        FutureTask<Void> future = new FutureTask<>(task, null);
+        execute(future);
+        return future;
+    }
+
+    /**
+     * @return the amount of threads currently running tasks, virtual ones included.
+     */
+    public int getActiveCount() {
+        ThreadPoolExecutor current = executor;
+        return (current == null ? 0 : current.getActiveCount()) + activeVirtualThreads.get();
+    }
+
+    /**
+     * @return the amount of tasks waiting for a thread.
+     */
+    public int getQueuedTaskCount() {
+        ThreadPoolExecutor current = executor;
+        return current == null ? 0 : current.getQueue().size();
+    }
+
+    /**
+     * @return the amount of tasks already finished.
+     */
+    public long getCompletedTaskCount() {
+        ThreadPoolExecutor current = executor;
+        return (current == null ? 0 : current.getCompletedTaskCount()) + completedVirtualTasks.get();
+    }
+
+    /**
+     * Stops accepting tasks. Tasks already queued are still executed. A new pool will be created if the engine
+     * is used again.
+     */
+    public synchronized void shutdown() {
+        if(executor != null){
+            executor.shutdown();
+            executor = null;
+        }
+        if(virtualExecutor != null){
+            virtualExecutor.shutdown();
+            virtualExecutor = null;
+        }
+    }
+
+    /**
+     * Finds the virtual thread API by reflection, as the library is compiled for older Java versions.
+     */
+    private static final class VirtualThreads {
+
+        static final boolean SUPPORTED;
+        private static final Method ofVirtual;
+        private static final Method name;
+        private static final Method factory;
+        private static final Method newThreadPerTaskExecutor;
+
+        static {
+            Method ofVirtualMethod = null;
+            Method nameMethod = null;
+            Method factoryMethod = null;
+            Method executorMethod = null;
+            boolean supported = false;
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                ofVirtualMethod = Thread.class.getMethod("ofVirtual");
+                nameMethod = builderClass.getMethod("name", String.class, long.class);
+                factoryMethod = builderClass.getMethod("factory");
+                executorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+                // fails on the JVMs where virtual threads are a disabled preview feature
+                ofVirtualMethod.invoke(null);
+                supported = true;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                supported = false;
+            }
+            SUPPORTED = supported;
+            ofVirtual = ofVirtualMethod;
+            name = nameMethod;
+            factory = factoryMethod;
+            newThreadPerTaskExecutor = executorMethod;
+        }
+
+        /**
+         * @param threadNamePrefix the prefix of the names of the virtual threads, followed by a counter.
+         * @return an executor starting a new virtual thread per task.
+         */
+        static ExecutorService newExecutor(String threadNamePrefix) {
+            try {
+                Object builder = name.invoke(ofVirtual.invoke(null), threadNamePrefix, 1L);
+                ThreadFactory threadFactory = (ThreadFactory) factory.invoke(builder);
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, threadFactory);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads can't be created", e);
+            }
+        }
+    }
+}
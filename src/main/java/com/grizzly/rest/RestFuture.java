@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+
+/**
+ * The future of an asynchronous call. Cancelling it, or reaching its timeout, aborts its handle: the request in
+ * flight is aborted and the callbacks of this run of the call are skipped. Futures derived from it (IE: with
+ * thenApply) don't cancel it.
+ */
+final class RestFuture<T> extends CompletableFuture<T> {
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "EasyRest-timeout-timer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AbortableRequestFactory.Handle handle = new AbortableRequestFactory.Handle();
+    /**
+     * @return the handle which must be registered by the thread sending the requests.
+     */
+    AbortableRequestFactory.Handle getHandle() {
+        return handle;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if(cancelled) abort();
+        return cancelled;
+    }
+
+    /**
+     * Completes the future with a TimeoutException, and aborts the handle, if it isn't done in time.
+     * @param timeout the maximum time.
+     * @param unit the unit of the timeout.
+     */
+    void setTimeout(final long timeout, final TimeUnit unit) {
+        final ScheduledFuture<?> timeoutTask = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if(completeExceptionally(new TimeoutException("The call didn't complete in " + timeout + " "
+                        + unit.name().toLowerCase()))){
+                    abort();
+                }
+            }
+        }, timeout, unit);
+        whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T result, Throwable failure) {
+                timeoutTask.cancel(false);
+            }
+        });
+    }
+
+    private void abort() {
+        handle.abort();
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The logging of EasyRest. Every logger has a category with its own level, and the messages are only built when
+ * their level is enabled: placeholders ({}) are replaced lazily, and callers building expensive messages check
+ * isEnabled first, so a disabled logger costs a volatile read and allocates nothing. The default level is WARN;
+ * EasyRest.setDebugMode(true) lowers it to DEBUG. Messages go to the console unless another Sink is set, IE: one
+ * forwarding to the logging framework of the application.
+ */
+public final class RestLogger {
+
+    public enum Level { TRACE, DEBUG, INFO, WARN, ERROR, OFF }
+
+    /**
+     * Receives the enabled messages.
+     */
+    public interface Sink {
+        void log(Level level, String category, String message, Throwable failure);
+    }
+
+    /**
+     * Requests, responses and their failures.
+     */
+    public static final String HTTP = "http";
+
+    /**
+     * Memory and disk cache reads, writes and refreshes.
+     */
+    public static final String CACHE = "cache";
+
+    /**
+     * Retries, hedges and circuit breakers.
+     */
+    public static final String RESILIENCE = "resilience";
+
+    /**
+     * Connection pools and execution engines.
+     */
+    public static final String POOL = "pool";
+
+    private static final ConcurrentMap<String, RestLogger> loggers = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Level> levels = new ConcurrentHashMap<>();
+    private static volatile Level defaultLevel = Level.WARN;
+    private static volatile Sink sink = new ConsoleSink(System.out);
+
+    private final String category;
+    private volatile Level level;
+
+    private RestLogger(String category, Level level) {
+        this.category = category;
+        this.level = level;
+    }
+
+    /**
+     * @param category the category of the logger, IE: RestLogger.CACHE.
+     * @return the logger of the category.
+     */
+    public static RestLogger getLogger(String category) {
+        RestLogger logger = loggers.get(category);
+        if(logger == null){
+            synchronized (RestLogger.class) {
+                logger = loggers.get(category);
+                if(logger == null){
+                    Level level = levels.get(category);
+                    logger = new RestLogger(category, level != null ? level : defaultLevel);
+                    loggers.put(category, logger);
+                }
+            }
+        }
+        return logger;
+    }
+
+    public static Level getDefaultLevel() {
+        return defaultLevel;
+    }
+
+    /**
+     * Sets the level of the categories without a level of their own.
+     * @param level the lowest level logged.
+     */
+    public static synchronized void setDefaultLevel(Level level) {
+        if(level == null){
+            throw new IllegalArgumentException("The level can't be null");
+        }
+        defaultLevel = level;
+        for(RestLogger logger : loggers.values()){
+            if(!levels.containsKey(logger.category)) logger.level = level;
+        }
+    }
+
+    /**
+     * Sets the level of a category.
+     * @param category the category, IE: RestLogger.HTTP.
+     * @param level the lowest level logged, or null to use the default level again.
+     */
+    public static synchronized void setLevel(String category, Level level) {
+        if(level == null) levels.remove(category);
+        else levels.put(category, level);
+        RestLogger logger = loggers.get(category);
+        if(logger != null) logger.level = level != null ? level : defaultLevel;
+    }
+
+    /**
+     * @param sink where the messages are written.
+     */
+    public static void setSink(Sink sink) {
+        if(sink == null){
+            throw new IllegalArgumentException("The sink can't be null");
+        }
+        RestLogger.sink = sink;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.compareTo(this.level) >= 0 && level != Level.OFF;
+    }
+
+    public boolean isTraceEnabled() {
+        return isEnabled(Level.TRACE);
+    }
+
+    public boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    public void trace(String message) {
+        if(isEnabled(Level.TRACE)) write(Level.TRACE, message, null);
+    }
+
+    public void trace(String message, Object argument) {
+        if(isEnabled(Level.TRACE)) write(Level.TRACE, format(message, argument, null, 1), null);
+    }
+
+    public void trace(String message, Object first, Object second) {
+        if(isEnabled(Level.TRACE)) write(Level.TRACE, format(message, first, second, 2), null);
+    }
+
+    public void debug(String message) {
+        if(isEnabled(Level.DEBUG)) write(Level.DEBUG, message, null);
+    }
+
+    public void debug(String message, Object argument) {
+        if(isEnabled(Level.DEBUG)) write(Level.DEBUG, format(message, argument, null, 1), null);
+    }
+
+    public void debug(String message, Object first, Object second) {
+        if(isEnabled(Level.DEBUG)) write(Level.DEBUG, format(message, first, second, 2), null);
+    }
+
+    public void debug(String message, Throwable failure) {
+        if(isEnabled(Level.DEBUG)) write(Level.DEBUG, message, failure);
+    }
+
+    public void info(String message) {
+        if(isEnabled(Level.INFO)) write(Level.INFO, message, null);
+    }
+
+    public void info(String message, Object argument) {
+        if(isEnabled(Level.INFO)) write(Level.INFO, format(message, argument, null, 1), null);
+    }
+
+    public void info(String message, Object first, Object second) {
+        if(isEnabled(Level.INFO)) write(Level.INFO, format(message, first, second, 2), null);
+    }
+
+    public void warn(String message) {
+        if(isEnabled(Level.WARN)) write(Level.WARN, message, null);
+    }
+
+    public void warn(String message, Object argument) {
+        if(isEnabled(Level.WARN)) write(Level.WARN, format(message, argument, null, 1), null);
+    }
+
+    public void warn(String message, Throwable failure) {
+        if(isEnabled(Level.WARN)) write(Level.WARN, message, failure);
+    }
+
+    public void warn(String message, Object argument, Throwable failure) {
+        if(isEnabled(Level.WARN)) write(Level.WARN, format(message, argument, null, 1), failure);
+    }
+
+    public void error(String message, Throwable failure) {
+        if(isEnabled(Level.ERROR)) write(Level.ERROR, message, failure);
+    }
+
+    private void write(Level level, String message, Throwable failure) {
+        try {
+            sink.log(level, category, message, failure);
+        } catch (RuntimeException e) {
+            // a broken sink must never break a call
+        }
+    }
+
+    private static String format(String message, Object first, Object second, int arguments) {
+        StringBuilder builder = new StringBuilder(message.length() + 32);
+        int start = 0;
+        for(int i = 0; i < arguments; i++){
+            int placeholder = message.indexOf("{}", start);
+            if(placeholder < 0) break;
+            builder.append(message, start, placeholder).append(i == 0 ? first : second);
+            start = placeholder + 2;
+        }
+        return builder.append(message, start, message.length()).toString();
+    }
+
+    /**
+     * Writes the messages to a PrintStream, IE: System.out. A message and its stack trace are written together;
+     * the writers wait on a lock rather than on the stream's monitor, so virtual threads logging at the same time
+     * don't pin their carrier threads.
+     */
+    public static class ConsoleSink implements Sink {
+
+        private final PrintStream stream;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        public ConsoleSink(PrintStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void log(Level level, String category, String message, Throwable failure) {
+            String line = "EasyRest [" + category + "] " + level + " - " + message;
+            lock.lock();
+            try {
+                stream.println(line);
+                if(failure != null) failure.printStackTrace(stream);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
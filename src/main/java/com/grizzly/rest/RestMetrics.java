@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.springframework.http.HttpMethod;
+
+/**
+ * Receives the measurements of the calls of a WebServiceFactory. Implementations are called from the threads
+ * sending the requests, so they must be thread safe and fast; DefaultRestMetrics keeps everything in memory.
+ * Endpoints are normalized url templates, IE: https://api.example.com/users/{id}.
+ */
+public interface RestMetrics {
+
+    enum CacheLayer { MEMORY, DISK }
+
+    enum CacheResult { HIT, STALE, MISS }
+
+    /**
+     * Called after every request sent, successful or not.
+     * @param endpoint the endpoint of the request.
+     * @param method the method of the request.
+     * @param statusCode the status of the response, or 0 if there was no response.
+     * @param failure the class of the exception of the request, or null if it succeeded.
+     * @param nanoseconds how long the request took, in nanoseconds.
+     * @param bytesSent the size of the request body, before compression.
+     * @param bytesReceived the size of the response body, after decompression.
+     */
+    void onRequest(String endpoint, HttpMethod method, int statusCode, Class<? extends Exception> failure,
+                   long nanoseconds, long bytesSent, long bytesReceived);
+
+    /**
+     * Called after a response body is read into an entity.
+     * @param endpoint the endpoint of the request.
+     * @param nanoseconds the time spent reading and deserializing the body, in nanoseconds.
+     */
+    void onDeserialization(String endpoint, long nanoseconds);
+
+    /**
+     * Called when a call looks for its response in a cache layer.
+     * @param endpoint the endpoint of the call.
+     * @param layer the layer which was checked.
+     * @param result HIT or STALE if the layer had the response, MISS otherwise.
+     */
+    void onCacheLookup(String endpoint, CacheLayer layer, CacheResult result);
+}
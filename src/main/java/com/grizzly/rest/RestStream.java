@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import rx.Producer;
+import rx.Subscriber;
+import rx.functions.Action0;
+import rx.subscriptions.Subscriptions;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The elements of a response, parsed one by one while the response is read. The response can be a top level JSON
+ * array or a sequence of JSON values, IE: newline delimited JSON. Only the current element is kept in memory.
+ * The connection is released when the last element is read or when the stream is closed. Closing it before the
+ * end aborts the request and drops the connection instead of reading the rest of the response, which may never
+ * end, IE: a feed.
+ */
+public class RestStream<E> implements Iterator<E>, Closeable {
+
+    private final ClientHttpResponse response;
+    private final MappingIterator<E> elements;
+    private final HostLimiter.Permit permit;
+    private final AbortableRequestFactory.Handle handle;
+    private volatile boolean closed = false;
+    private volatile boolean finished = false;
+
+    /**
+     * @param response an open response.
+     * @param reader the reader of the elements.
+     * @param permit the permit of the request, released when the stream is closed. Can be null.
+     * @param handle the handle of the request, aborted if the stream is closed before the end. Can be null.
+     */
+    RestStream(ClientHttpResponse response, ObjectReader reader, HostLimiter.Permit permit,
+               AbortableRequestFactory.Handle handle) throws IOException {
+        this.response = response;
+        this.permit = permit;
+        this.handle = handle;
+        this.elements = reader.readValues(response.getBody());
+    }
+
+    public HttpStatus getStatusCode() throws IOException {
+        return response.getStatusCode();
+    }
+
+    public HttpHeaders getHeaders() {
+        return response.getHeaders();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(closed) return false;
+        boolean hasNext;
+        try {
+            hasNext = elements.hasNext();
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        if(!hasNext){
+            finished = true;
+            close();
+        }
+        return hasNext;
+    }
+
+    @Override
+    public E next() {
+        if(!hasNext()) throw new NoSuchElementException();
+        try {
+            return elements.next();
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("The elements of a stream can't be removed");
+    }
+
+    @Override
+    public synchronized void close() {
+        if(closed) return;
+        closed = true;
+        if(!finished) abort();
+        try {
+            elements.close();
+        } catch (IOException e) {
+            RestLogger.getLogger(RestLogger.HTTP).debug("The stream can't be closed", e);
+        } finally {
+            response.close();
+            if(permit != null) permit.release();
+        }
+    }
+
+    /**
+     * Aborts the request, so a thread blocked reading the response fails at once. It can be called from any thread;
+     * the stream must still be closed by the thread reading it.
+     */
+    void abort() {
+        if(handle != null) handle.abort();
+    }
+
+    /**
+     * Creates a producer which emits the elements to a subscriber as they are requested. When the subscriber
+     * unsubscribes, the request is aborted and the stream is closed by the thread emitting the elements, or by the
+     * unsubscribing one if no element is being emitted.
+     * @param subscriber the subscriber receiving the elements.
+     * @return a Producer.
+     */
+    Producer createProducer(Subscriber<? super E> subscriber) {
+        final ElementProducer<E> producer = new ElementProducer<>(this, subscriber);
+        subscriber.add(Subscriptions.create(new Action0() {
+            @Override
+            public void call() {
+                producer.cancel();
+            }
+        }));
+        return producer;
+    }
+
+    /**
+     * Emits the elements requested by the subscriber and no more, so a slow subscriber keeps the response
+     * unread instead of having the elements buffered.
+     */
+    private static final class ElementProducer<E> implements Producer {
+
+        private final RestStream<E> stream;
+        private final Subscriber<? super E> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+
+        ElementProducer(RestStream<E> stream, Subscriber<? super E> subscriber) {
+            this.stream = stream;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if(n <= 0 || addRequested(n) != 0) return;
+
+            long pending = requested.get();
+            while(pending > 0){
+                long emitted = 0;
+                while(emitted < pending){
+                    if(subscriber.isUnsubscribed()){
+                        stream.close();
+                        return;
+                    }
+                    E element;
+                    try {
+                        if(!stream.hasNext()){
+                            subscriber.onCompleted();
+                            return;
+                        }
+                        element = stream.next();
+                    } catch (RuntimeException e) {
+                        stream.close();
+                        if(!subscriber.isUnsubscribed()) subscriber.onError(e);
+                        return;
+                    }
+                    subscriber.onNext(element);
+                    emitted++;
+                }
+                pending = pending == Long.MAX_VALUE ? pending : requested.addAndGet(-emitted);
+            }
+        }
+
+        /**
+         * Aborts the request. The stream is closed here only if no thread is emitting: the emitting thread owns the
+         * stream until it has no more requested elements, and it closes the stream when it sees the unsubscription.
+         */
+        void cancel() {
+            stream.abort();
+            if(addRequested(1) == 0) stream.close();
+        }
+
+        private long addRequested(long n) {
+            while(true){
+                long current = requested.get();
+                long next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                if(requested.compareAndSet(current, next)) return current;
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.grizzly.rest.Exceptions.CircuitBreakerOpenException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientException;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides if and when a failed request is sent again. Connection errors, 5xx and 429 responses are retried, up to
+ * a maximum amount of attempts, waiting a random time between zero and an exponentially growing backoff (full
+ * jitter). A Retry-After header sent by the server is honored. Only idempotent methods (GET, HEAD, OPTIONS, PUT
+ * and DELETE) are retried, and POST when the request carries the idempotency key header.
+ *
+ * Every host has a retry budget: each first attempt earns a fraction of a retry, each retry spends one, so retries
+ * can't multiply the load on a host which is already failing.
+ */
+public class RetryPolicy {
+
+    private volatile int maxAttempts = 3;
+    private volatile long baseDelay = 100;
+    private volatile long maxDelay = 10000;
+    private volatile long maxRetryAfter = 30000;
+    private volatile String idempotencyKeyHeader = "Idempotency-Key";
+    private volatile double retryRatio = 0.2;
+    private volatile int maxRetryTokens = 10;
+
+    private final RequestBudget budget = new RequestBudget();
+    private final Random random = new Random();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong budgetExhaustedCount = new AtomicLong();
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * Sets the maximum amount of attempts of a request, the first one included.
+     * @param maxAttempts a positive number. One disables the retries.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if(maxAttempts<1){
+            throw new IllegalArgumentException("The amount of attempts must be greater than zero");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * Sets the backoff of the first retry. It doubles with every retry.
+     * @param miliseconds the backoff, in miliseconds.
+     */
+    public void setBaseDelay(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The delay can't be negative");
+        }
+        this.baseDelay = miliseconds;
+    }
+
+    public long getMaxDelay() {
+        return maxDelay;
+    }
+
+    /**
+     * Sets the maximum backoff between two attempts.
+     * @param miliseconds the backoff, in miliseconds.
+     */
+    public void setMaxDelay(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The delay can't be negative");
+        }
+        this.maxDelay = miliseconds;
+    }
+
+    public long getMaxRetryAfter() {
+        return maxRetryAfter;
+    }
+
+    /**
+     * Sets the longest Retry-After accepted. When the server asks to wait longer, the request isn't retried.
+     * @param miliseconds the maximum wait, in miliseconds.
+     */
+    public void setMaxRetryAfter(long miliseconds) {
+        if(miliseconds<0){
+            throw new IllegalArgumentException("The delay can't be negative");
+        }
+        this.maxRetryAfter = miliseconds;
+    }
+
+    public String getIdempotencyKeyHeader() {
+        return idempotencyKeyHeader;
+    }
+
+    /**
+     * Sets the header which makes a POST request safe to retry.
+     * @param idempotencyKeyHeader the header name, IE: Idempotency-Key, or null to never retry POST requests.
+     */
+    public void setIdempotencyKeyHeader(String idempotencyKeyHeader) {
+        this.idempotencyKeyHeader = idempotencyKeyHeader;
+    }
+
+    /**
+     * Sets the retry budget of every host.
+     * @param retryRatio the fraction of a retry earned by every first attempt, IE: 0.2 allows one retry every five
+     *                   requests.
+     * @param maxRetryTokens the maximum amount of retries saved, which is also the budget of a new host.
+     */
+    public void setRetryBudget(double retryRatio, int maxRetryTokens) {
+        if(retryRatio<0 || maxRetryTokens<0){
+            throw new IllegalArgumentException("The retry budget can't be negative");
+        }
+        this.retryRatio = retryRatio;
+        this.maxRetryTokens = maxRetryTokens;
+    }
+
+    /**
+     * @param method the method of the request.
+     * @param requestHeaders the headers of the request.
+     * @return true if the request is safe to send again.
+     */
+    public boolean isRetryable(HttpMethod method, HttpHeaders requestHeaders) {
+        switch (method) {
+            case GET:
+            case HEAD:
+            case OPTIONS:
+            case PUT:
+            case DELETE:
+                return true;
+            case POST:
+                String header = idempotencyKeyHeader;
+                return header != null && requestHeaders != null && requestHeaders.getFirst(header) != null;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param failure the exception of the failed attempt.
+     * @return true if the failure is worth another attempt.
+     */
+    public boolean isRetryable(RestClientException failure) {
+        if(failure instanceof CircuitBreakerOpenException) return false;
+        if(failure instanceof ResourceAccessException) return true;
+        if(failure instanceof HttpStatusCodeException){
+            HttpStatus status = ((HttpStatusCodeException) failure).getStatusCode();
+            return status.value() >= 500 || status.value() == 429;
+        }
+        return false;
+    }
+
+    /**
+     * Computes how long to wait before the next attempt.
+     * @param attempt the number of the failed attempt, starting at one.
+     * @param failure the exception of the failed attempt.
+     * @return the delay, in miliseconds, or -1 if the server asked to wait longer than the maximum Retry-After.
+     */
+    public long getDelay(int attempt, RestClientException failure) {
+        double backoff = Math.min(maxDelay, baseDelay * Math.pow(2, attempt - 1));
+        long delay;
+        synchronized (random) {
+            delay = (long) (random.nextDouble() * backoff);
+        }
+        if(failure instanceof HttpStatusCodeException){
+            long retryAfter = getRetryAfter(((HttpStatusCodeException) failure).getResponseHeaders());
+            if(retryAfter > maxRetryAfter) return -1;
+            delay = Math.max(delay, retryAfter);
+        }
+        return delay;
+    }
+
+    /**
+     * Reads a Retry-After header, in seconds or as an http date.
+     * @return the wait asked by the server, in miliseconds, or zero if there is none.
+     */
+    static long getRetryAfter(HttpHeaders headers) {
+        String retryAfter = headers == null ? null : headers.getFirst("Retry-After");
+        if(retryAfter == null) return 0;
+        try {
+            return Math.max(Long.parseLong(retryAfter.trim()) * 1000, 0);
+        } catch (NumberFormatException e) {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+            try {
+                return Math.max(format.parse(retryAfter.trim()).getTime() - System.currentTimeMillis(), 0);
+            } catch (ParseException e1) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Registers a first attempt to a host, earning part of a retry.
+     * @param host the host key, IE: https://api.example.com:443.
+     */
+    void onFirstAttempt(String host) {
+        budget.deposit(host, retryRatio, maxRetryTokens);
+    }
+
+    /**
+     * Spends a retry from the budget of a host.
+     * @param host the host key, IE: https://api.example.com:443.
+     * @return true if the budget allowed the retry.
+     */
+    boolean tryRetry(String host) {
+        if(budget.withdraw(host, maxRetryTokens)){
+            retryCount.incrementAndGet();
+            return true;
+        }
+        budgetExhaustedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the amount of retries sent.
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return the amount of retries not sent because the budget of the host was exhausted.
+     */
+    public long getBudgetExhaustedCount() {
+        return budgetExhaustedCount.get();
+    }
+}
@@ -17,14 +17,19 @@
 package com.grizzly.rest;
 
 import com.grizzly.rest.Model.RestResults;
-import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.grizzly.rest.Model.sendRestData;
+import org.apache.http.pool.PoolStats;
 import org.springframework.http.HttpHeaders;
+import rx.Observable;
+import rx.Scheduler;
 import rx.Subscriber;
+import rx.schedulers.Schedulers;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created on 24/03/14.
@@ -35,10 +40,25 @@ public class WebServiceFactory implements CacheProvider{
     private HttpHeaders requestHeaders = new HttpHeaders();
     private HttpHeaders responseHeaders = new HttpHeaders();
     private long globalCacheTime = 899999;
+    private CacheControlPolicy cacheControlPolicy = CacheControlPolicy.FIXED;
     private int timeOutValue = 60000;
     private static HashMap<String, String> cachedRequests = new HashMap<>();
     private String baseUrl = "";
-    private MappingJackson2HttpMessageConverter jacksonConverter;
+    private JacksonRegistry jacksonRegistry = new JacksonRegistry();
+    private HttpConnectionPool connectionPool = new HttpConnectionPool();
+    private RestExecutionEngine executionEngine = new RestExecutionEngine();
+    private RequestCoalescer requestCoalescer = new RequestCoalescer();
+    private RefreshScheduler refreshScheduler = new RefreshScheduler();
+    private boolean requestCompression = false;
+    private int compressionThreshold = GzipRequestInterceptor.DEFAULT_THRESHOLD;
+    private HostLimiter hostLimiter;
+    private RetryPolicy retryPolicy;
+    private HedgingPolicy hedgingPolicy;
+    private CircuitBreaker circuitBreaker;
+    private AsyncTransport asyncTransport;
+    private Scheduler subscriberScheduler;
+    private RestMetrics metrics;
+    private EndpointNormalizer endpointNormalizer = new EndpointNormalizer();
 
     private Map<String, List<Subscriber<RestResults>>> subscribers;
 
@@ -67,6 +87,23 @@ public class WebServiceFactory implements CacheProvider{
         globalCacheTime = time;
     }
 
+    public CacheControlPolicy getCacheControlPolicy() {
+        return cacheControlPolicy;
+    }
+
+    /**
+     * Sets how the calls created by this factory decide the freshness of their cached responses. With FIXED, the
+     * default, the global cache time is used for every response; with SERVER and SERVER_CAPPED the server's
+     * Cache-Control and Expires headers are honored, and the global cache time becomes the fallback or the cap.
+     * @param cacheControlPolicy the policy to be used.
+     */
+    public void setCacheControlPolicy(CacheControlPolicy cacheControlPolicy) {
+        if(cacheControlPolicy == null){
+            throw new IllegalArgumentException("The cache control policy can't be null");
+        }
+        this.cacheControlPolicy = cacheControlPolicy;
+    }
+
     public void setTimeOutValue(int miliseconds){
         if(miliseconds>=0){
             timeOutValue = miliseconds;
@@ -80,6 +117,406 @@ public class WebServiceFactory implements CacheProvider{
         baseUrl = BaseUrl;
     }
 
+    /**
+     * Sets the maximum amount of open connections shared by the calls created by this factory.
+     * @param maxTotalConnections a positive number.
+     */
+    public void setMaxTotalConnections(int maxTotalConnections){
+        connectionPool.setMaxTotalConnections(maxTotalConnections);
+    }
+
+    /**
+     * Sets the maximum amount of open connections to a single host.
+     * @param maxConnectionsPerRoute a positive number.
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute){
+        connectionPool.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+    }
+
+    /**
+     * Sets how long an unused connection stays in the pool.
+     * @param miliseconds the idle time, in miliseconds.
+     */
+    public void setIdleConnectionTimeout(long miliseconds){
+        connectionPool.setIdleConnectionTimeout(miliseconds);
+    }
+
+    /**
+     * Sets how long a connection is kept alive when the server doesn't say it.
+     * @param miliseconds the keep-alive time, in miliseconds.
+     */
+    public void setDefaultKeepAliveTime(long miliseconds){
+        connectionPool.setDefaultKeepAliveTime(miliseconds);
+    }
+
+    /**
+     * Enables or disables compressed responses (Accept-Encoding: gzip,deflate). They are enabled by default, and
+     * decompressed while they are read.
+     * @param responseCompression true to accept compressed responses.
+     */
+    public void setResponseCompression(boolean responseCompression){
+        connectionPool.setContentCompression(responseCompression);
+    }
+
+    public boolean isRequestCompression(){
+        return requestCompression;
+    }
+
+    /**
+     * Compresses with gzip the request bodies of the calls created by this factory.
+     * @param requestCompression true to compress the request bodies.
+     */
+    public void setRequestCompression(boolean requestCompression){
+        this.requestCompression = requestCompression;
+    }
+
+    public int getCompressionThreshold(){
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the minimum size of a request body to be compressed. Smaller bodies are sent uncompressed.
+     * @param bytes the threshold, in bytes.
+     */
+    public void setCompressionThreshold(int bytes){
+        if(bytes<0){
+            throw new IllegalArgumentException("The compression threshold can't be negative");
+        }
+        compressionThreshold = bytes;
+    }
+
+    /**
+     * Returns the connection pool shared by the calls created by this factory.
+     * @return the factory's HttpConnectionPool.
+     */
+    public HttpConnectionPool getConnectionPool(){
+        return connectionPool;
+    }
+
+    /**
+     * Returns the statistics of the factory's connection pool.
+     * @return a PoolStats with the leased, pending and available connections.
+     */
+    public PoolStats getPoolStats(){
+        return connectionPool.getTotalStats();
+    }
+
+    /**
+     * Returns the statistics of every host the factory has connected to.
+     * @return a Map of host and PoolStats.
+     */
+    public Map<String, PoolStats> getRoutePoolStats(){
+        return connectionPool.getRouteStats();
+    }
+
+    /**
+     * Sets the maximum amount of threads running asynchronous calls, cache writes and cache refreshes.
+     * @param poolSize a positive number.
+     */
+    public void setThreadPoolSize(int poolSize){
+        executionEngine.setPoolSize(poolSize);
+    }
+
+    /**
+     * Sets the amount of asynchronous tasks which can wait for a free thread.
+     * @param queueCapacity a positive number.
+     */
+    public void setTaskQueueCapacity(int queueCapacity){
+        executionEngine.setQueueCapacity(queueCapacity);
+    }
+
+    /**
+     * Sets what to do with an asynchronous task when both the threads and the queue are busy. By default the task
+     * is rejected, and the call fails with a RejectedExecutionException. ThreadPoolExecutor.CallerRunsPolicy runs
+     * it in the submitting thread instead, which blocks the asynchronous calls until the engine has room.
+     * @param rejectionPolicy any RejectedExecutionHandler, IE: ThreadPoolExecutor.CallerRunsPolicy
+     */
+    public void setRejectionPolicy(RejectedExecutionHandler rejectionPolicy){
+        executionEngine.setRejectionPolicy(rejectionPolicy);
+    }
+
+    /**
+     * Allows identical requests in flight at the same time to share a single network call. Enabled by default.
+     * @param enabled true to coalesce identical requests.
+     */
+    public void setRequestCoalescingEnabled(boolean enabled){
+        if(!enabled){
+            requestCoalescer = null;
+        }
+        else if(requestCoalescer == null){
+            requestCoalescer = new RequestCoalescer();
+        }
+    }
+
+    /**
+     * Returns the coalescer of identical requests, to check how many network calls it saved.
+     * @return the factory's RequestCoalescer, or null if coalescing is disabled.
+     */
+    public RequestCoalescer getRequestCoalescer(){
+        return requestCoalescer;
+    }
+
+    /**
+     * Sets the maximum amount of requests in flight to a single host. Requests over the limit wait for their turn.
+     * @param maxConcurrentRequests the limit, or zero for no limit.
+     */
+    public void setMaxConcurrentRequestsPerHost(int maxConcurrentRequests){
+        getOrCreateHostLimiter().setMaxConcurrentRequests(maxConcurrentRequests);
+    }
+
+    /**
+     * Sets the maximum amount of requests started per second to a single host. Requests over the limit wait for
+     * their turn.
+     * @param requestsPerSecond the limit, or zero for no limit.
+     */
+    public void setRequestsPerSecondPerHost(double requestsPerSecond){
+        getOrCreateHostLimiter().setRequestsPerSecond(requestsPerSecond);
+    }
+
+    /**
+     * Overrides the limits of a single host.
+     * @param host the host, IE: https://api.example.com:443 or api.example.com.
+     * @param maxConcurrentRequests the concurrency limit, or zero for no limit.
+     * @param requestsPerSecond the rate limit, or zero for no limit.
+     */
+    public void setHostLimits(String host, int maxConcurrentRequests, double requestsPerSecond){
+        getOrCreateHostLimiter().setHostLimits(host, maxConcurrentRequests, requestsPerSecond);
+    }
+
+    /**
+     * Returns the limiter of the requests to every host, to check its queue depth and wait times.
+     * @return the factory's HostLimiter, or null if no limits were set.
+     */
+    public HostLimiter getHostLimiter(){
+        return hostLimiter;
+    }
+
+    private synchronized HostLimiter getOrCreateHostLimiter(){
+        if(hostLimiter == null) hostLimiter = new HostLimiter();
+        return hostLimiter;
+    }
+
+    public RetryPolicy getRetryPolicy(){
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy used by the calls created by this factory to send their requests again when they fail. The
+     * policy, and so the retry budget of every host, is shared by all those calls.
+     * @param retryPolicy the policy to be used, or null to never retry.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy){
+        this.retryPolicy = retryPolicy;
+    }
+
+    public HedgingPolicy getHedgingPolicy(){
+        return hedgingPolicy;
+    }
+
+    /**
+     * Sets the policy used by the calls created by this factory to hedge their slow GET requests. The policy, its
+     * observed latencies and the hedge budget of every host are shared by all those calls.
+     * @param hedgingPolicy the policy to be used, or null to never hedge.
+     */
+    public void setHedgingPolicy(HedgingPolicy hedgingPolicy){
+        this.hedgingPolicy = hedgingPolicy;
+    }
+
+    public CircuitBreaker getCircuitBreaker(){
+        return circuitBreaker;
+    }
+
+    /**
+     * Sets the circuit breaker of the calls created by this factory. While the circuit of a host is open, its calls
+     * fail right away without sending anything, and are answered from the cache when there is one.
+     * @param circuitBreaker the breaker to be used, or null to always send the requests.
+     */
+    public void setCircuitBreaker(CircuitBreaker circuitBreaker){
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    public AsyncTransport getAsyncTransport(){
+        return asyncTransport;
+    }
+
+    /**
+     * Sets the non-blocking transport used by the executeAsync() of the calls created by this factory. Their
+     * requests wait for the response in the transport's I/O threads, and only the cache lookup, the reading of the
+     * response and the callbacks run in the execution engine, so a small engine can keep thousands of calls in
+     * flight. Streams, streamed uploads and the calls run with get() or execute() keep using the connection pool.
+     * IE: setAsyncTransport(new AsyncTransport()).
+     * @param asyncTransport the transport to be used, or null to send every request from the engine's threads.
+     */
+    public void setAsyncTransport(AsyncTransport asyncTransport){
+        this.asyncTransport = asyncTransport;
+    }
+
+    public RestMetrics getMetrics(){
+        return metrics;
+    }
+
+    /**
+     * Sets where the calls created by this factory record their latencies, statuses, failures, body sizes, cache
+     * lookups and deserialization times. IE: setMetrics(new DefaultRestMetrics()).
+     * @param metrics the metrics to be used, or null to measure nothing.
+     */
+    public void setMetrics(RestMetrics metrics){
+        this.metrics = metrics;
+    }
+
+    public EndpointNormalizer getEndpointNormalizer(){
+        return endpointNormalizer;
+    }
+
+    /**
+     * Sets how the urls of the calls are turned into the endpoint keys of the metrics.
+     * @param endpointNormalizer the normalizer to be used.
+     */
+    public void setEndpointNormalizer(EndpointNormalizer endpointNormalizer){
+        if(endpointNormalizer == null){
+            throw new IllegalArgumentException("The endpoint normalizer can't be null");
+        }
+        this.endpointNormalizer = endpointNormalizer;
+    }
+
+    /**
+     * Returns the scheduler of the background cache refreshes, to set its minimum interval and jitter.
+     * @return the factory's RefreshScheduler.
+     */
+    public RefreshScheduler getRefreshScheduler(){
+        return refreshScheduler;
+    }
+
+    public RestExecutionEngine getExecutionEngine(){
+        return executionEngine;
+    }
+
+    /**
+     * Replaces the engine which runs the asynchronous work of the calls created by this factory.
+     * @param executionEngine the engine to be used.
+     */
+    public void setExecutionEngine(RestExecutionEngine executionEngine){
+        if(executionEngine == null){
+            throw new IllegalArgumentException("The execution engine can't be null");
+        }
+        this.executionEngine = executionEngine;
+    }
+
+    /**
+     * Returns an rx Scheduler running its work in the factory's execution engine.
+     * @return a Scheduler, IE: for subscribeOn.
+     */
+    public Scheduler getScheduler(){
+        return Schedulers.from(executionEngine);
+    }
+
+    public Scheduler getSubscriberScheduler(){
+        return subscriberScheduler;
+    }
+
+    /**
+     * Sets where the success subscribers of the calls created by this factory are notified, so a slow subscriber
+     * doesn't hold the thread which ran the call.
+     * @param subscriberScheduler the scheduler to be used, or null to notify the subscribers in the thread of the call.
+     */
+    public void setSubscriberScheduler(Scheduler subscriberScheduler){
+        this.subscriberScheduler = subscriberScheduler;
+    }
+
+    /**
+     * Returns a cold Observable of a call, which executes it in the factory's execution engine on every
+     * subscription. Use cache() to share a single execution between several subscribers, and observeOn to choose
+     * where the results are delivered. If the engine is full, the subscriber receives a RejectedExecutionException.
+     * @param call the call to be observed.
+     * @return an Observable emitting the RestResults of the call.
+     */
+    public <X> Observable<RestResults<X>> toObservable(GenericRestCall<?, X, ?> call){
+        return call.toObservable().subscribeOn(getScheduler());
+    }
+
+    /**
+     * Returns a cold Observable of the elements of a streamed response, sending the request in the factory's
+     * execution engine. Elements are read from the response as the subscriber requests them.
+     * @param call the call to be streamed.
+     * @param elementClass the class of the elements of the response.
+     * @return an Observable emitting the elements of the response.
+     */
+    public <E> Observable<E> toStreamObservable(GenericRestCall<?, ?, ?> call, Class<E> elementClass){
+        return call.streamObservable(elementClass).subscribeOn(getScheduler());
+    }
+
+    public boolean isVirtualThreads(){
+        return executionEngine.isVirtualThreads();
+    }
+
+    /**
+     * Runs the calls created by this factory (execute(true), executeAsync() and the batches) in a virtual thread
+     * each, when the JVM supports them (Java 21 or newer), keeping the blocking model of get(). Tens of thousands of
+     * calls can then wait at once; raise the connection limits accordingly, as they still bound the requests sent.
+     * On older JVMs the bounded thread pool keeps being used.
+     * @param virtualThreads true to use virtual threads when available.
+     */
+    public void setVirtualThreads(boolean virtualThreads){
+        executionEngine.setVirtualThreads(virtualThreads);
+    }
+
+    /**
+     * Starts a group of calls, with at most parallelism of them in flight, and returns right away. The calls run
+     * in the factory's execution engine, never in the calling thread, whatever its rejection policy: parallelism
+     * is capped to half the capacity of the engine (its pool size plus its queue capacity), and a call the engine
+     * can't take because of other work fails with a RejectedExecutionException.
+     * @param calls the calls to be executed.
+     * @param parallelism the maximum amount of calls in flight.
+     * @return the RestBatch, to wait for the calls and read their results.
+     */
+    public RestBatch executeAllAsync(Collection<? extends GenericRestCall<?, ?, ?>> calls, int parallelism){
+        if(parallelism<1){
+            throw new IllegalArgumentException("The parallelism must be greater than zero");
+        }
+        RestBatch batch = new RestBatch(calls, executionEngine.getRejectingExecutor());
+        // a finishing call submits the next one before its thread is free, so the batch can hold twice its parallelism
+        batch.start(Math.min(parallelism, Math.max(1, executionEngine.getCapacity() / 2)));
+        return batch;
+    }
+
+    /**
+     * Executes a group of calls, with at most parallelism of them in flight, and waits until all of them have
+     * finished.
+     * @param calls the calls to be executed.
+     * @param parallelism the maximum amount of calls in flight.
+     * @return the finished RestBatch, with the results of the calls.
+     */
+    public RestBatch executeAll(Collection<? extends GenericRestCall<?, ?, ?>> calls, int parallelism) throws InterruptedException {
+        RestBatch batch = executeAllAsync(calls, parallelism);
+        batch.await();
+        return batch;
+    }
+
+    /**
+     * Executes a group of calls, with at most parallelism of them in flight, and waits until all of them have
+     * finished or the timeout expires. On timeout, the calls not started yet are cancelled.
+     * @param calls the calls to be executed.
+     * @param parallelism the maximum amount of calls in flight.
+     * @param timeout the maximum time to wait, in miliseconds.
+     * @return the RestBatch. Check isDone() to know if every call finished.
+     */
+    public RestBatch executeAll(Collection<? extends GenericRestCall<?, ?, ?>> calls, int parallelism, long timeout) throws InterruptedException {
+        RestBatch batch = executeAllAsync(calls, parallelism);
+        if(!batch.await(timeout, TimeUnit.MILLISECONDS)) batch.cancel();
+        return batch;
+    }
+
+    /**
+     * Closes the pooled connections and stops the worker threads once their tasks are done. Calls created
+     * afterwards will open a new pool.
+     */
+    public void shutdown(){
+        executionEngine.shutdown();
+        refreshScheduler.shutdown();
+        connectionPool.shutdown();
+        if(asyncTransport != null) asyncTransport.shutdown();
+    }
+
     public WebServiceFactory() {
     }
 
@@ -112,6 +549,9 @@ public class WebServiceFactory implements CacheProvider{
 
         myRestCall.setCacheProvider(this);
         myRestCall.setCacheTime(globalCacheTime);
+        myRestCall.setCacheControlPolicy(cacheControlPolicy);
+        myRestCall.setHttpClient(connectionPool.getHttpClient());
+        myRestCall.setExecutionEngine(executionEngine);
 
         if(requestHeaders!= null && !requestHeaders.isEmpty()){
            myRestCall.setRequestHeaders(requestHeaders);
@@ -119,8 +559,19 @@ public class WebServiceFactory implements CacheProvider{
         if(!baseUrl.isEmpty() && baseUrl.trim().equalsIgnoreCase("") && baseUrl != null){
             myRestCall.setUrl(baseUrl);
         }
-        if(jacksonConverter!=null){
-            //myRestCall.setJacksonMapper(jacksonConverter);
+        myRestCall.setJacksonRegistry(jacksonRegistry);
+        myRestCall.setRequestCoalescer(requestCoalescer);
+        myRestCall.setRefreshScheduler(refreshScheduler);
+        myRestCall.setHostLimiter(hostLimiter);
+        myRestCall.setRetryPolicy(retryPolicy);
+        myRestCall.setHedgingPolicy(hedgingPolicy);
+        myRestCall.setCircuitBreaker(circuitBreaker);
+        myRestCall.setAsyncTransport(asyncTransport);
+        myRestCall.observeSubscribersOn(subscriberScheduler);
+        myRestCall.setMetrics(metrics, endpointNormalizer);
+        if(requestCompression){
+            myRestCall.setCompressionThreshold(compressionThreshold);
+            myRestCall.setRequestCompression(true);
         }
         myRestCall.setTimeOut(timeOutValue);
 
@@ -157,9 +608,12 @@ public class WebServiceFactory implements CacheProvider{
         try{
             myRestCall.setCacheProvider(this);
             myRestCall.setCacheTime(globalCacheTime);
+            myRestCall.setCacheControlPolicy(cacheControlPolicy);
+            myRestCall.setHttpClient(connectionPool.getHttpClient());
+            myRestCall.setExecutionEngine(executionEngine);
         }
         catch(NullPointerException e){
-            e.printStackTrace();
+            RestLogger.getLogger(RestLogger.HTTP).warn("The call can't be configured", e);
         }
         if(requestHeaders!= null && !requestHeaders.isEmpty()){
             myRestCall.setRequestHeaders(requestHeaders);
@@ -167,8 +621,19 @@ public class WebServiceFactory implements CacheProvider{
         if(!baseUrl.isEmpty() && baseUrl.trim().equalsIgnoreCase("") && baseUrl != null){
             myRestCall.setUrl(baseUrl);
         }
-        if(jacksonConverter!=null){
-            myRestCall.setJacksonMapper(jacksonConverter);
+        myRestCall.setJacksonRegistry(jacksonRegistry);
+        myRestCall.setRequestCoalescer(requestCoalescer);
+        myRestCall.setRefreshScheduler(refreshScheduler);
+        myRestCall.setHostLimiter(hostLimiter);
+        myRestCall.setRetryPolicy(retryPolicy);
+        myRestCall.setHedgingPolicy(hedgingPolicy);
+        myRestCall.setCircuitBreaker(circuitBreaker);
+        myRestCall.setAsyncTransport(asyncTransport);
+        myRestCall.observeSubscribersOn(subscriberScheduler);
+        myRestCall.setMetrics(metrics, endpointNormalizer);
+        if(requestCompression){
+            myRestCall.setCompressionThreshold(compressionThreshold);
+            myRestCall.setRequestCompression(true);
         }
         myRestCall.setTimeOut(timeOutValue);
 
@@ -201,24 +666,28 @@ public class WebServiceFactory implements CacheProvider{
     }
 
     /**
-     * Factory getter method. Returns either the current instance of the MappingJackson2HttpConverter,
-     * or a initialized one wih FAIL_ON_UNKNOW_PROPERTIES and FAIL_ON_INVALID_SUBTYPE set to false.
+     * Factory getter method. Returns the MappingJackson2HttpConverter shared by the rest calls, initialized with
+     * FAIL_ON_UNKNOW_PROPERTIES and FAIL_ON_INVALID_SUBTYPE set to false unless a custom one was set.
      * @return the jacksonConverter to be used by all the rest calls created by this factory.
      */
     public MappingJackson2HttpMessageConverter getJacksonConverter() {
-        if(jacksonConverter == null){
-            MappingJackson2HttpMessageConverter jacksonConverter = new MappingJackson2HttpMessageConverter();
-            jacksonConverter.getObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-            jacksonConverter.getObjectMapper().configure(DeserializationFeature.FAIL_ON_INVALID_SUBTYPE, false);
-        }
-        return jacksonConverter;
+        return jacksonRegistry.getConverter();
     }
 
     /**
-     * Allows setting a custom MappingJackson2HttpConverter
+     * Allows setting a custom MappingJackson2HttpConverter. Its ObjectMapper will be used by all the rest calls
+     * created afterwards.
      * @param jacksonConverter the converter to be set.
      */
     public void setJacksonConverter(MappingJackson2HttpMessageConverter jacksonConverter) {
-        this.jacksonConverter = jacksonConverter;
+        this.jacksonRegistry = new JacksonRegistry(jacksonConverter.getObjectMapper());
+    }
+
+    /**
+     * Returns the cached readers and writers shared by the rest calls created by this factory.
+     * @return the factory's JacksonRegistry.
+     */
+    public JacksonRegistry getJacksonRegistry() {
+        return jacksonRegistry;
     }
 }
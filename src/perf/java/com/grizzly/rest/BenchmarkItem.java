@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A representative response element for the benchmarks and the load test: numbers, strings, a list and a flag.
+ */
+public class BenchmarkItem {
+
+    public long id;
+    public String name;
+    public String description;
+    public double price;
+    public boolean active;
+    public long createdAt;
+    public List<String> tags;
+
+    /**
+     * @param count the amount of items.
+     * @return items with deterministic content, so every run sends the same bytes.
+     */
+    public static BenchmarkItem[] create(int count) {
+        BenchmarkItem[] items = new BenchmarkItem[count];
+        for(int i = 0; i < count; i++){
+            BenchmarkItem item = new BenchmarkItem();
+            item.id = 100000 + i;
+            item.name = "Item " + i;
+            item.description = "A representative description of the item number " + i + ", long enough to matter.";
+            item.price = 10 + (i % 1000) / 100.0;
+            item.active = i % 3 != 0;
+            item.createdAt = 1420070400000L + i * 60000L;
+            item.tags = new ArrayList<>(Arrays.asList("tag" + (i % 7), "tag" + (i % 11), "benchmark"));
+            items[i] = item;
+        }
+        return items;
+    }
+}
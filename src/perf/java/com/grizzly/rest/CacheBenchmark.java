@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cache paths of a call: reading the cached response from memory and from disk, and writing it. The disk
+ * writes run in the calling thread, so their whole cost is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+    @Param({"10", "1000"})
+    public int items;
+
+    private StandInServer server;
+    private WebServiceFactory factory;
+    private GenericRestCall<Void, BenchmarkItem[], Void> call;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StandInServer();
+        server.start();
+        factory = new WebServiceFactory();
+        call = factory.getGenericRestCallInstance(Void.class, BenchmarkItem[].class)
+                .setUrl(server.getUrl("/items?count=" + items))
+                .setMethodToCall(HttpMethod.GET)
+                .isCacheEnabled(true)
+                .setCacheTime(3600000L);
+        call.setExecutionEngine(new DirectExecutionEngine());
+        call.get();
+        if(!call.getFromSolidCache()){
+            throw new IllegalStateException("The response wasn't cached");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new File(call.getCachedFileName()).delete();
+        new File(call.getCachedFileName() + ".meta").delete();
+        factory.shutdown();
+        server.stop();
+    }
+
+    @Benchmark
+    public boolean memoryHit() {
+        return call.getFromSolidCache();
+    }
+
+    @Benchmark
+    public boolean diskHit() {
+        EasyRest.getQuickCache().removeRequest(call.getCachedFileName());
+        return call.getFromSolidCache();
+    }
+
+    @Benchmark
+    public void write() {
+        call.createSolidCache(null);
+    }
+
+    /**
+     * Runs the tasks in the submitting thread.
+     */
+    static class DirectExecutionEngine extends RestExecutionEngine {
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The end to end overhead of a call created by a WebServiceFactory, against a local stand-in server without
+ * latency: an uncached GET (request, response and deserialization) and a GET answered by the memory cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallBenchmark {
+
+    @Param({"1", "100"})
+    public int items;
+
+    private StandInServer server;
+    private WebServiceFactory factory;
+    private String url;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new StandInServer();
+        server.start();
+        factory = new WebServiceFactory();
+        url = server.getUrl("/items?count=" + items);
+        // fills the cache used by cachedGet
+        createCall(true).get();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GenericRestCall<Void, BenchmarkItem[], Void> call = createCall(true);
+        new File(call.getCachedFileName()).delete();
+        new File(call.getCachedFileName() + ".meta").delete();
+        factory.shutdown();
+        server.stop();
+    }
+
+    private GenericRestCall<Void, BenchmarkItem[], Void> createCall(boolean cached) {
+        return factory.getGenericRestCallInstance(Void.class, BenchmarkItem[].class)
+                .setUrl(url)
+                .setMethodToCall(HttpMethod.GET)
+                .isCacheEnabled(cached)
+                .setCacheTime(3600000L);
+    }
+
+    @Benchmark
+    public BenchmarkItem[] uncachedGet() {
+        GenericRestCall<Void, BenchmarkItem[], Void> call = createCall(false);
+        call.get();
+        return call.getJsonResponseEntity();
+    }
+
+    @Benchmark
+    public BenchmarkItem[] cachedGet() {
+        GenericRestCall<Void, BenchmarkItem[], Void> call = createCall(true);
+        call.get();
+        return call.getJsonResponseEntity();
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.grizzly.rest.Model.RestResponse;
+import org.springframework.http.HttpMethod;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Drives calls created by a WebServiceFactory against a local StandInServer at increasing concurrency, and reports
+ * the throughput, the latency percentiles, the peak thread count, the retained heap growth and the cache hit ratio
+ * of every level. Every execution mode runs the same levels, so the modes can be compared side by side:
+ *
+ * blocking: one driver thread per concurrent call, calling get().
+ * engine: the calls run in the factory's RestExecutionEngine, as execute(true) does, with at most "concurrency"
+ * calls in flight.
+ * virtual: as engine, with the engine running every call in a virtual thread (Java 21 or newer, otherwise the
+ * mode is skipped).
+ * future: the calls run with executeAsync(), with at most "concurrency" futures pending.
+ * nio: as future, with the requests sent through an AsyncTransport and an engine of one thread per core.
+ *
+ * Settings are given as arguments, with or without the leading dashes, IE: --levels=1,8,64 --duration=10 --latency=20 --jitter=10 --error-rate=0.01
+ * --items=10 --keys=1000 --cache-time=60000 --modes=blocking,future
+ */
+public class LoadTest {
+
+    private int[] levels = {1, 8, 32, 128, 512};
+    private long warmup = 2000;
+    private long duration = 10000;
+    private long latency = 20;
+    private long jitter = 10;
+    private double errorRate = 0;
+    private int items = 10;
+    private int keys = 1000;
+    private long cacheTime = 0;
+    private List<String> modes = Arrays.asList("blocking", "engine", "virtual", "future", "nio");
+
+    private StandInServer server;
+
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        loadTest.parse(args);
+        loadTest.run();
+    }
+
+    private void parse(String[] args) {
+        for(String arg : args){
+            for(String setting : arg.trim().split("\\s+")){
+                if(setting.isEmpty()) continue;
+                if(setting.startsWith("--")) setting = setting.substring(2);
+                if(!setting.contains("=")){
+                    throw new IllegalArgumentException("Settings must look like --name=value: " + setting);
+                }
+                String name = setting.substring(0, setting.indexOf('='));
+                String value = setting.substring(setting.indexOf('=') + 1);
+                switch (name) {
+                    case "levels":
+                        String[] values = value.split(",");
+                        levels = new int[values.length];
+                        for(int i = 0; i < values.length; i++){
+                            levels[i] = Integer.parseInt(values[i].trim());
+                        }
+                        break;
+                    case "warmup": warmup = Long.parseLong(value) * 1000; break;
+                    case "duration": duration = Long.parseLong(value) * 1000; break;
+                    case "latency": latency = Long.parseLong(value); break;
+                    case "jitter": jitter = Long.parseLong(value); break;
+                    case "error-rate": errorRate = Double.parseDouble(value); break;
+                    case "items": items = Integer.parseInt(value); break;
+                    case "keys": keys = Integer.parseInt(value); break;
+                    case "cache-time": cacheTime = Long.parseLong(value); break;
+                    case "modes": modes = Arrays.asList(value.split(",")); break;
+                    default: throw new IllegalArgumentException("Unknown setting: " + name);
+                }
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        server = new StandInServer();
+        server.setLatency(latency, jitter);
+        server.setErrorRate(errorRate);
+        server.start();
+        System.out.println("EasyRest load test - latency " + latency + "+" + jitter + "ms, error rate " + errorRate
+                + ", " + items + " items, " + keys + " keys, cache time " + cacheTime + "ms, "
+                + duration / 1000 + "s per level");
+        System.out.println(String.format("%-10s %6s %9s %7s %9s %8s %8s %8s %8s %8s %9s %6s",
+                "mode", "conc", "requests", "errors", "req/s", "p50 ms", "p90 ms", "p99 ms", "max ms",
+                "threads", "heap MB", "hits"));
+        try {
+            for(String mode : modes){
+                if(mode.trim().equals("virtual") && !RestExecutionEngine.isVirtualThreadsSupported()){
+                    System.out.println("virtual    skipped, this JVM doesn't support virtual threads");
+                    continue;
+                }
+                for(int concurrency : levels){
+                    Result result = runLevel(mode.trim(), concurrency);
+                    System.out.println(result);
+                }
+            }
+        } finally {
+            server.stop();
+            EasyRest.deleteCache();
+        }
+    }
+
+    private Result runLevel(String mode, int concurrency) throws InterruptedException {
+        WebServiceFactory factory = new WebServiceFactory();
+        factory.setMaxTotalConnections(concurrency);
+        factory.setMaxConnectionsPerRoute(concurrency);
+        if(mode.equals("nio")){
+            AsyncTransport transport = new AsyncTransport();
+            transport.setMaxTotalConnections(concurrency);
+            transport.setMaxConnectionsPerRoute(concurrency);
+            factory.setAsyncTransport(transport);
+            factory.setThreadPoolSize(Runtime.getRuntime().availableProcessors());
+        }
+        else{
+            factory.setThreadPoolSize(concurrency);
+        }
+        if(mode.equals("virtual")) factory.setVirtualThreads(true);
+        DefaultRestMetrics metrics = new DefaultRestMetrics();
+        factory.setMetrics(metrics);
+        EasyRest.getQuickCache().clear();
+
+        try {
+            drive(mode, factory, concurrency, warmup, new Result(mode, concurrency));
+            metrics.reset();
+
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            System.gc();
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+            threads.resetPeakThreadCount();
+
+            Result result = new Result(mode, concurrency);
+            long elapsed = drive(mode, factory, concurrency, duration, result);
+
+            result.throughput = result.requests.get() * 1000.0 / elapsed;
+            result.peakThreads = threads.getPeakThreadCount();
+            System.gc();
+            result.heapGrowth = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+            result.cacheHitRatio = metrics.getCacheHitRatio();
+            return result;
+        } finally {
+            factory.shutdown();
+        }
+    }
+
+    /**
+     * Sends calls for a while.
+     * @return the elapsed time, in miliseconds, including the calls still in flight at the end.
+     */
+    private long drive(String mode, final WebServiceFactory factory, int concurrency, long time, final Result result)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos(time);
+
+        switch (mode) {
+            case "blocking":
+                List<Thread> drivers = new ArrayList<>();
+                for(int i = 0; i < concurrency; i++){
+                    Thread driver = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            while(System.nanoTime() < deadline){
+                                GenericRestCall<Void, BenchmarkItem[], Void> call = createCall(factory);
+                                long callStart = System.nanoTime();
+                                boolean successful = call.get();
+                                result.record(successful, System.nanoTime() - callStart);
+                            }
+                        }
+                    }, "LoadTest-driver-" + i);
+                    drivers.add(driver);
+                    driver.start();
+                }
+                for(Thread driver : drivers){
+                    driver.join();
+                }
+                break;
+            case "engine":
+            case "virtual":
+                final Semaphore inFlight = new Semaphore(concurrency);
+                while(System.nanoTime() < deadline){
+                    inFlight.acquire();
+                    final GenericRestCall<Void, BenchmarkItem[], Void> call = createCall(factory);
+                    final long callStart = System.nanoTime();
+                    factory.getExecutionEngine().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            boolean successful = false;
+                            try {
+                                successful = call.get();
+                            } finally {
+                                result.record(successful, System.nanoTime() - callStart);
+                                inFlight.release();
+                            }
+                        }
+                    });
+                }
+                inFlight.acquire(concurrency);
+                break;
+            case "future":
+            case "nio":
+                final Semaphore pending = new Semaphore(concurrency);
+                while(System.nanoTime() < deadline){
+                    pending.acquire();
+                    final long callStart = System.nanoTime();
+                    createCall(factory).executeAsync().whenComplete(new BiConsumer<RestResponse<BenchmarkItem[], Void>, Throwable>() {
+                        @Override
+                        public void accept(RestResponse<BenchmarkItem[], Void> response, Throwable failure) {
+                            result.record(failure == null && response.isSuccessful(), System.nanoTime() - callStart);
+                            pending.release();
+                        }
+                    });
+                }
+                pending.acquire(concurrency);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private GenericRestCall<Void, BenchmarkItem[], Void> createCall(WebServiceFactory factory) {
+        int key = ThreadLocalRandom.current().nextInt(keys);
+        return factory.getGenericRestCallInstance(Void.class, BenchmarkItem[].class)
+                .setUrl(server.getUrl("/items?count=" + items + "&key=" + key))
+                .setMethodToCall(HttpMethod.GET)
+                .isCacheEnabled(cacheTime > 0)
+                .setCacheTime(cacheTime);
+    }
+
+    /**
+     * The measurements of one level.
+     */
+    private static class Result {
+
+        private final String mode;
+        private final int concurrency;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private double throughput;
+        private int peakThreads;
+        private long heapGrowth;
+        private double cacheHitRatio;
+
+        Result(String mode, int concurrency) {
+            this.mode = mode;
+            this.concurrency = concurrency;
+        }
+
+        void record(boolean successful, long nanoseconds) {
+            requests.incrementAndGet();
+            if(!successful) errors.incrementAndGet();
+            latencies.recordValue(TimeUnit.NANOSECONDS.toMicros(nanoseconds));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-10s %6d %9d %7d %9.1f %8.2f %8.2f %8.2f %8.2f %8d %9.1f %5.0f%%",
+                    mode, concurrency, requests.get(), errors.get(), throughput,
+                    latencies.getValueAtPercentile(50) / 1000.0, latencies.getValueAtPercentile(90) / 1000.0,
+                    latencies.getValueAtPercentile(99) / 1000.0, latencies.getMax() / 1000.0,
+                    peakThreads, heapGrowth / (1024.0 * 1024.0), cacheHitRatio * 100);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialization and deserialization of representative payloads, through the cached readers and writers
+ * of a JacksonRegistry, as the calls use them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int items;
+
+    private BenchmarkItem[] payload;
+    private byte[] json;
+    private ObjectReader reader;
+    private ObjectWriter writer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        JacksonRegistry registry = new JacksonRegistry();
+        reader = registry.getReader(BenchmarkItem[].class);
+        writer = registry.getWriter(BenchmarkItem[].class);
+        payload = BenchmarkItem.create(items);
+        json = writer.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return writer.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public BenchmarkItem[] deserialize() throws IOException {
+        return reader.readValue(json);
+    }
+}
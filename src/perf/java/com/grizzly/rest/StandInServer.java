@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server standing in for a real service, so the benchmarks and the load test run offline and
+ * deterministically. It is built on the JDK's HttpServer and serves:
+ *
+ * GET /items?count=N: a JSON array of N BenchmarkItems, rendered once per size.
+ * POST or PUT /echo: the request body.
+ *
+ * Every response can be delayed (a fixed latency plus a random jitter), and a share of them can fail with a 503.
+ */
+public class StandInServer {
+
+    private volatile long latency = 0;
+    private volatile long jitter = 0;
+    private volatile double errorRate = 0;
+    private volatile int defaultItems = 10;
+    private volatile String cacheControl = null;
+
+    private final ConcurrentMap<Integer, byte[]> payloads = new ConcurrentHashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param miliseconds the delay of every response, in miliseconds.
+     * @param jitter a random delay added to it, between 0 and this value, in miliseconds.
+     */
+    public void setLatency(long miliseconds, long jitter) {
+        if(miliseconds<0 || jitter<0){
+            throw new IllegalArgumentException("The latency can't be negative");
+        }
+        this.latency = miliseconds;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param errorRate the share of the responses which fail with a 503, between 0 and 1.
+     */
+    public void setErrorRate(double errorRate) {
+        if(errorRate<0 || errorRate>1){
+            throw new IllegalArgumentException("The error rate must be between 0 and 1");
+        }
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param defaultItems the amount of items of /items when the request has no count parameter.
+     */
+    public void setDefaultItems(int defaultItems) {
+        if(defaultItems<0){
+            throw new IllegalArgumentException("The amount of items can't be negative");
+        }
+        this.defaultItems = defaultItems;
+    }
+
+    /**
+     * @param cacheControl the Cache-Control header of the successful responses, or null to send none.
+     */
+    public void setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+    }
+
+    /**
+     * Starts the server on a free port of the loopback interface.
+     */
+    public synchronized void start() throws IOException {
+        if(server != null) return;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 4096);
+        server.createContext("/items", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if(delayAndFail(exchange)) return;
+                respond(exchange, 200, getPayload(getCount(exchange.getRequestURI().getRawQuery())), cacheControl);
+            }
+        });
+        server.createContext("/echo", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                if(delayAndFail(exchange)) return;
+                respond(exchange, 200, readBody(exchange.getRequestBody()), null);
+            }
+        });
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "StandInServer-" + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public synchronized void stop() {
+        if(server == null) return;
+        server.stop(0);
+        executor.shutdownNow();
+        server = null;
+    }
+
+    public synchronized int getPort() {
+        if(server == null){
+            throw new IllegalStateException("The server isn't running");
+        }
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param path the path and query, IE: /items?count=100.
+     * @return the url of the path in this server.
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @return true if the response was already sent as an error.
+     */
+    private boolean delayAndFail(HttpExchange exchange) throws IOException {
+        requestCount.incrementAndGet();
+        Random random = ThreadLocalRandom.current();
+        long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        if(delay > 0){
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(errorRate > 0 && random.nextDouble() < errorRate){
+            errorCount.incrementAndGet();
+            readBody(exchange.getRequestBody());
+            respond(exchange, 503, "{\"error\":\"injected failure\"}".getBytes("UTF-8"), null);
+            return true;
+        }
+        return false;
+    }
+
+    private int getCount(String query) {
+        if(query != null){
+            for(String parameter : query.split("&")){
+                if(parameter.startsWith("count=")){
+                    try {
+                        return Integer.parseInt(parameter.substring(6));
+                    } catch (NumberFormatException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        return defaultItems;
+    }
+
+    private byte[] getPayload(int count) throws IOException {
+        byte[] payload = payloads.get(count);
+        if(payload == null){
+            payload = EasyRest.getDefaultJacksonRegistry().getWriter(BenchmarkItem[].class)
+                    .writeValueAsBytes(BenchmarkItem.create(count));
+            byte[] previous = payloads.putIfAbsent(count, payload);
+            if(previous != null) payload = previous;
+        }
+        return payload;
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body, String cacheControl) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        if(cacheControl != null) exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+}
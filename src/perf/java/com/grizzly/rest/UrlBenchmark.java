@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The url and cache key construction of a call, which runs several times per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlBenchmark {
+
+    private static final String BASE_URL = "https://api.example.com/v1/users/12345/items";
+
+    private GenericRestCall<Void, BenchmarkItem[], Void> call;
+    private Map<String, Object> parameters;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        call = new GenericRestCall<>(Void.class, BenchmarkItem[].class, Void.class).setUrl(BASE_URL + "?page=3&size=50");
+        parameters = new LinkedHashMap<>();
+        parameters.put("page", 3);
+        parameters.put("size", 50);
+        parameters.put("query", "easy rest");
+        parameters.put("sort", "name");
+    }
+
+    @Benchmark
+    public String getUrl() {
+        return call.getUrl();
+    }
+
+    @Benchmark
+    public String getCachedFileName() {
+        return call.getCachedFileName();
+    }
+
+    @Benchmark
+    public GenericRestCall<Void, BenchmarkItem[], Void> addUrlParams() {
+        return call.setUrl(BASE_URL).addUrlParams(parameters);
+    }
+}
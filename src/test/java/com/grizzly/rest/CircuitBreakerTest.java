@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import junit.framework.TestCase;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CircuitBreakerTest extends TestCase {
+
+    private static final String HOST = "https://api.example.com:443";
+
+    private CircuitBreaker breaker;
+    private final List<String> transitions = new ArrayList<>();
+
+    @Override
+    protected void setUp() throws Exception {
+        breaker = new CircuitBreaker();
+        breaker.setWindowSize(4, 4);
+        breaker.setOpenDuration(60000);
+        breaker.setHalfOpenProbes(2);
+        breaker.addListener(new CircuitBreaker.Listener() {
+            @Override
+            public void onStateChange(String circuit, CircuitBreaker.State from, CircuitBreaker.State to) {
+                transitions.add(from + "->" + to);
+            }
+        });
+    }
+
+    public void testOpensWhenTheFailureRateIsReached() {
+        send(false);
+        send(true);
+        send(false);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+
+        send(true);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+        assertFalse(breaker.tryAcquire(HOST));
+        assertEquals("[CLOSED->OPEN]", transitions.toString());
+    }
+
+    public void testOpensWhenTheSlowCallRateIsReached() {
+        breaker.setSlowCallThreshold(100);
+        breaker.setSlowCallRateThreshold(50);
+        for(int i = 0; i < 4; i++){
+            assertTrue(breaker.tryAcquire(HOST));
+            breaker.onResult(HOST, false, i % 2 == 0 ? 500 : 10);
+        }
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+    }
+
+    public void testOnlyTheLastOutcomesCount() {
+        for(int i = 0; i < 10; i++){
+            send(false);
+        }
+        send(true);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+
+        send(true);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+    }
+
+    public void testClosesWhenEveryProbeSucceeds() {
+        open();
+        breaker.setOpenDuration(0);
+
+        assertTrue(breaker.tryAcquire(HOST));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(HOST));
+        assertTrue(breaker.tryAcquire(HOST));
+        assertFalse(breaker.tryAcquire(HOST));
+
+        breaker.onResult(HOST, false, 10);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(HOST));
+        breaker.onResult(HOST, false, 10);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+        assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]", transitions.toString());
+    }
+
+    public void testReopensWhenAProbeFails() {
+        open();
+        breaker.setOpenDuration(0);
+        assertTrue(breaker.tryAcquire(HOST));
+        breaker.setOpenDuration(60000);
+
+        breaker.onResult(HOST, true, 10);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+        assertFalse(breaker.tryAcquire(HOST));
+    }
+
+    public void testAnAbortedProbeGivesItsPermissionBack() {
+        breaker.setHalfOpenProbes(1);
+        open();
+        breaker.setOpenDuration(0);
+        assertTrue(breaker.tryAcquire(HOST));
+        assertFalse(breaker.tryAcquire(HOST));
+
+        breaker.release(HOST);
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState(HOST));
+        assertTrue(breaker.tryAcquire(HOST));
+        breaker.onResult(HOST, false, 10);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+    }
+
+    public void testReleasingAClosedCircuitChangesNothing() {
+        assertTrue(breaker.tryAcquire(HOST));
+        breaker.release(HOST);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+        assertTrue(transitions.isEmpty());
+    }
+
+    public void testResetClosesTheCircuit() {
+        open();
+
+        breaker.reset(HOST);
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(HOST));
+        assertTrue(breaker.tryAcquire(HOST));
+    }
+
+    public void testOnlyHostFailuresCount() {
+        assertTrue(breaker.isFailure(new ResourceAccessException("Connection refused")));
+        assertTrue(breaker.isFailure(new HttpServerErrorException(HttpStatus.BAD_GATEWAY)));
+        assertFalse(breaker.isFailure(new HttpClientErrorException(HttpStatus.BAD_REQUEST)));
+    }
+
+    public void testUrlPrefixesHaveTheirOwnCircuit() {
+        breaker.addUrlPrefix("https://api.example.com/payments");
+        breaker.addUrlPrefix("https://api.example.com/payments/refunds");
+
+        assertEquals("https://api.example.com/payments/refunds", circuitOf("https://api.example.com/payments/refunds/1"));
+        assertEquals("https://api.example.com/payments", circuitOf("https://api.example.com/payments/1"));
+        assertEquals("https://api.example.com", circuitOf("https://api.example.com/items"));
+    }
+
+    private String circuitOf(String url) {
+        return breaker.getCircuitKey(url, URI.create(url));
+    }
+
+    private void send(boolean failed) {
+        assertTrue(breaker.tryAcquire(HOST));
+        breaker.onResult(HOST, failed, 10);
+    }
+
+    private void open() {
+        for(int i = 0; i < 4; i++){
+            send(true);
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState(HOST));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import junit.framework.TestCase;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class HedgedRequestTest extends TestCase {
+
+    private static final String HOST = "https://api.example.com:443";
+
+    private RestExecutionEngine engine;
+    private HedgingPolicy policy;
+
+    @Override
+    protected void setUp() throws Exception {
+        engine = new RestExecutionEngine("EasyRest-hedge-test");
+        policy = new HedgingPolicy();
+        policy.setHedgeDelay(20);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        engine.shutdown();
+    }
+
+    public void testFastRequestsAreNotHedged() {
+        SlowFirstAttempt attempt = new SlowFirstAttempt(0);
+
+        ResponseEntity<String> response = HedgedRequest.execute(attempt, policy, HOST, engine);
+
+        assertEquals("attempt 1", response.getBody());
+        assertEquals(1, attempt.sent.get());
+        assertEquals(0, policy.getHedgeCount());
+    }
+
+    public void testTheHedgeWinsAndAbortsTheSlowRequest() {
+        SlowFirstAttempt attempt = new SlowFirstAttempt(5000);
+
+        ResponseEntity<String> response = HedgedRequest.execute(attempt, policy, HOST, engine);
+
+        assertEquals("attempt 2", response.getBody());
+        assertTrue(attempt.firstAborted.get());
+        assertEquals(1, policy.getHedgeCount());
+        assertEquals(1, policy.getHedgeWinCount());
+    }
+
+    public void testNoHedgeWithoutBudget() {
+        policy.setHedgeBudget(0, 0);
+        SlowFirstAttempt attempt = new SlowFirstAttempt(100);
+
+        ResponseEntity<String> response = HedgedRequest.execute(attempt, policy, HOST, engine);
+
+        assertEquals("attempt 1", response.getBody());
+        assertEquals(1, attempt.sent.get());
+        assertEquals(0, policy.getHedgeCount());
+    }
+
+    public void testAFailureWaitsForTheOtherRequest() {
+        final AtomicInteger sent = new AtomicInteger();
+        HedgedRequest.Attempt<String> attempt = new HedgedRequest.Attempt<String>() {
+            @Override
+            ResponseEntity<String> send() {
+                if(sent.incrementAndGet() == 1){
+                    sleep(100);
+                    throw new ResourceAccessException("Connection reset");
+                }
+                sleep(200);
+                return new ResponseEntity<>("hedge", HttpStatus.OK);
+            }
+        };
+
+        assertEquals("hedge", HedgedRequest.execute(attempt, policy, HOST, engine).getBody());
+    }
+
+    public void testTheFailureIsThrownWhenEveryRequestFails() {
+        final ResourceAccessException failure = new ResourceAccessException("Connection refused");
+        HedgedRequest.Attempt<String> attempt = new HedgedRequest.Attempt<String>() {
+            @Override
+            ResponseEntity<String> send() {
+                throw failure;
+            }
+        };
+
+        try {
+            HedgedRequest.execute(attempt, policy, HOST, engine);
+            fail("The failure wasn't thrown");
+        } catch (ResourceAccessException e) {
+            assertSame(failure, e);
+        }
+    }
+
+    public void testTheDelayFollowsThePercentile() {
+        policy.setPercentile(50);
+        assertEquals(20, policy.getCurrentDelay());
+
+        for(int i = 1; i <= 32; i++){
+            policy.recordLatency(i);
+        }
+
+        assertEquals(16, policy.getCurrentDelay());
+    }
+
+    private static void sleep(long miliseconds) {
+        try {
+            Thread.sleep(miliseconds);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The first attempt takes the given time, or until it is aborted; later attempts answer at once.
+     */
+    private static final class SlowFirstAttempt extends HedgedRequest.Attempt<String> {
+
+        private final long firstLatency;
+        private final AtomicInteger sent = new AtomicInteger();
+        private final AtomicBoolean firstAborted = new AtomicBoolean();
+
+        SlowFirstAttempt(long firstLatency) {
+            this.firstLatency = firstLatency;
+        }
+
+        @Override
+        ResponseEntity<String> send() {
+            int number = sent.incrementAndGet();
+            if(number == 1){
+                long deadline = System.currentTimeMillis() + firstLatency;
+                while(System.currentTimeMillis() < deadline){
+                    if(AbortableRequestFactory.isCurrentRequestAborted()){
+                        firstAborted.set(true);
+                        throw new ResourceAccessException("The request was aborted");
+                    }
+                    sleep(1);
+                }
+            }
+            return new ResponseEntity<>("attempt " + number, HttpStatus.OK);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import junit.framework.TestCase;
+
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class HostLimiterTest extends TestCase {
+
+    private static final URI API = URI.create("https://api.example.com/items");
+    private static final URI OTHER = URI.create("https://other.example.com/items");
+    private static final String API_HOST = "https://api.example.com";
+
+    private HostLimiter limiter;
+
+    @Override
+    protected void setUp() throws Exception {
+        limiter = new HostLimiter();
+    }
+
+    public void testHostKeyIsTheSchemeAndAuthority() {
+        assertEquals("https://api.example.com:8443", HostLimiter.getHostKey(URI.create("https://api.example.com:8443/a?b=c")));
+    }
+
+    public void testConcurrencyLimitMakesRequestsWait() throws Exception {
+        limiter.setMaxConcurrentRequests(2);
+        HostLimiter.Permit first = limiter.acquire(API);
+        limiter.acquire(API);
+        assertEquals(2, limiter.getInFlightCount(API_HOST));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.acquire(API);
+                acquired.countDown();
+            }
+        });
+        waiting.start();
+
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, limiter.getQueueDepth(API_HOST));
+
+        first.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(0, limiter.getQueueDepth());
+        assertEquals(2, limiter.getInFlightCount(API_HOST));
+    }
+
+    public void testReleasingAPermitTwiceFreesOneSlot() {
+        limiter.setMaxConcurrentRequests(1);
+        HostLimiter.Permit permit = limiter.acquire(API);
+        permit.release();
+        permit.release();
+
+        limiter.acquire(API);
+        assertEquals(1, limiter.getInFlightCount(API_HOST));
+    }
+
+    public void testRateLimitSpacesRequestsAfterTheBurst() {
+        limiter.setRequestsPerSecond(20);
+        long start = System.nanoTime();
+        for(int i = 0; i < 20; i++){
+            limiter.acquire(API).release();
+        }
+        long burst = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        for(int i = 0; i < 4; i++){
+            limiter.acquire(API).release();
+        }
+        long throttled = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue("The burst took " + burst + "ms", burst < 150);
+        assertTrue("Four requests over the rate took " + throttled + "ms", throttled >= 150);
+        assertTrue(limiter.getMaxWaitTime(API_HOST) >= 30);
+    }
+
+    public void testHostLimitsOverrideTheDefaults() throws Exception {
+        limiter.setMaxConcurrentRequests(1);
+        limiter.setHostLimits("other.example.com", 0, 0);
+
+        limiter.acquire(API);
+        limiter.acquire(OTHER);
+        limiter.acquire(OTHER);
+
+        assertEquals(2, limiter.getInFlightCount("https://other.example.com"));
+        assertEquals(2, limiter.getHosts().size());
+    }
+
+    public void testRaisingTheLimitReleasesWaitingRequests() throws Exception {
+        limiter.setMaxConcurrentRequests(1);
+        limiter.acquire(API);
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                limiter.acquire(API);
+                acquired.countDown();
+            }
+        }).start();
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+
+        limiter.setMaxConcurrentRequests(2);
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testInterruptedWaitFailsWithoutTakingASlot() throws Exception {
+        limiter.setMaxConcurrentRequests(1);
+        HostLimiter.Permit permit = limiter.acquire(API);
+
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread waiting = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    limiter.acquire(API);
+                } catch (RuntimeException e) {
+                    failure.set(e);
+                }
+            }
+        });
+        waiting.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while(limiter.getQueueDepth(API_HOST) == 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        waiting.interrupt();
+        waiting.join(5000);
+
+        assertNotNull(failure.get());
+        assertEquals(0, limiter.getQueueDepth(API_HOST));
+        permit.release();
+        assertEquals(0, limiter.getInFlightCount(API_HOST));
+    }
+
+    public void testRejectsNegativeLimits() {
+        try {
+            limiter.setRequestsPerSecond(-1);
+            fail("A negative rate was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class LiteCachingStorageTest extends TestCase {
+
+    private LiteCachingStorage storage;
+
+    @Override
+    protected void setUp() throws Exception {
+        storage = new LiteCachingStorage();
+    }
+
+    public void testEvictsTheLeastRecentlyUsedEntry() {
+        storage.setCachingSize(2);
+        storage.addRequest("a", "A");
+        storage.addRequest("b", "B");
+        assertEquals("A", storage.getRequest("a"));
+
+        storage.addRequest("c", "C");
+
+        assertEquals("A", storage.getRequest("a"));
+        assertNull(storage.getRequest("b"));
+        assertEquals("C", storage.getRequest("c"));
+        assertEquals(1, storage.getEvictionCount());
+        assertEquals(2, storage.size());
+    }
+
+    public void testCountsHitsAndMisses() {
+        storage.addRequest("a", "A");
+        storage.getRequest("a");
+        storage.getRequest("b");
+
+        assertEquals(1, storage.getHitCount());
+        assertEquals(1, storage.getMissCount());
+        assertEquals(0.5, storage.getHitRatio(), 0.0001);
+    }
+
+    public void testDropsExpiredEntries() throws InterruptedException {
+        storage.addRequest("a", "A", 1);
+        Thread.sleep(10);
+
+        assertNull(storage.getRequest("a"));
+        assertFalse(storage.isCachedRequest("a"));
+        assertEquals(1, storage.getExpirationCount());
+    }
+
+    public void testMaxAgeDoesNotRemoveTheEntry() throws InterruptedException {
+        storage.addRequest("a", "A");
+        Thread.sleep(10);
+
+        assertNull(storage.getRequest("a", 1));
+        assertEquals("A", storage.getRequest("a", 60000));
+    }
+
+    public void testSweepRemovesExpiredEntries() throws InterruptedException {
+        storage.addRequest("a", "A", 1);
+        storage.addRequest("b", "B");
+        Thread.sleep(10);
+
+        storage.sweepExpired();
+
+        assertEquals(1, storage.size());
+        assertEquals(1, storage.getExpirationCount());
+    }
+
+    public void testRetainsExpiredEntriesWithValidators() throws InterruptedException {
+        CacheMetadata metadata = new CacheMetadata();
+        metadata.setETag("\"v1\"");
+        storage.addRequest("a", "A", 1, metadata);
+        Thread.sleep(10);
+
+        assertNull(storage.getRequest("a"));
+        assertEquals("A", storage.getStaleRequest("a"));
+        assertSame(metadata, storage.getMetadata("a"));
+    }
+
+    public void testDropsExpiredEntriesWithoutValidators() throws InterruptedException {
+        CacheMetadata metadata = new CacheMetadata();
+        metadata.setExpiresAt(System.currentTimeMillis() + 1);
+        storage.addRequest("a", "A", 1, metadata);
+        Thread.sleep(10);
+
+        assertNull(storage.getStaleRequest("a"));
+        assertNull(storage.getMetadata("a"));
+    }
+
+    public void testDropsRetainedEntriesAfterTheStaleRetention() throws InterruptedException {
+        CacheMetadata metadata = new CacheMetadata();
+        metadata.setLastModified("Wed, 21 Oct 2015 07:28:00 GMT");
+        storage.setStaleRetention(5);
+        storage.addRequest("a", "A", 1, metadata);
+        Thread.sleep(20);
+
+        assertNull(storage.getStaleRequest("a"));
+    }
+
+    public void testShrinkingKeepsTheMostRecentlyUsedEntries() {
+        storage.setCachingSize(20);
+        for(int i = 0; i < 10; i++){
+            storage.addRequest("key" + i, i);
+        }
+
+        storage.setCachingSize(5);
+
+        assertEquals(5, storage.size());
+        assertNull(storage.getRequest("key0"));
+        assertNull(storage.getRequest("key4"));
+        assertEquals(5, storage.getRequest("key5"));
+        assertEquals(9, storage.getRequest("key9"));
+    }
+
+    public void testBoundsTheCacheByWeight() {
+        storage.setMaximumWeight(160, new LiteCachingStorage.Weigher() {
+            @Override
+            public long weigh(String name, Object entity) {
+                return ((String) entity).length();
+            }
+        });
+
+        for(int i = 0; i < 1000; i++){
+            storage.addRequest("key" + i, "ab");
+        }
+
+        assertTrue(storage.getWeight() <= 160);
+        assertEquals(storage.size() * 2, storage.getWeight());
+        assertTrue(storage.getEvictionCount() > 0);
+    }
+
+    public void testWeightBoundRequiresAWeigher() {
+        try {
+            storage.setMaximumWeight(100, null);
+            fail("A weight bound without a weigher was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testRejectsANonPositiveCachingSize() {
+        try {
+            storage.setCachingSize(0);
+            fail("A caching size of zero was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testWritesDuringResizesAreNotLost() throws Exception {
+        storage.setCachingSize(4000);
+        final int writers = 4;
+        final int keysPerWriter = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+
+        for(int w = 0; w < writers; w++){
+            final int writer = w;
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for(int i = 0; i < keysPerWriter; i++){
+                            storage.addRequest("writer" + writer + "-" + i, i);
+                        }
+                    } catch (Throwable e) {
+                        error.set(e);
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for(int i = 0; i < 50; i++){
+                        storage.setCachingSize(i % 2 == 0 ? 8000 : 4000);
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            }
+        }));
+
+        for(Thread thread : threads){
+            thread.start();
+        }
+        start.countDown();
+        for(Thread thread : threads){
+            thread.join();
+        }
+
+        assertNull(error.get());
+        assertEquals(writers * keysPerWriter, storage.size());
+        for(int w = 0; w < writers; w++){
+            for(int i = 0; i < keysPerWriter; i++){
+                assertEquals(i, storage.getRequest("writer" + w + "-" + i));
+            }
+        }
+        assertEquals(0, storage.getEvictionCount());
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import junit.framework.TestCase;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RequestCoalescerTest extends TestCase {
+
+    private RequestCoalescer coalescer;
+    private File cachedFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        coalescer = new RequestCoalescer();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if(cachedFile != null) cachedFile.delete();
+    }
+
+    public void testFollowersShareTheLeadersResponse() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ResponseEntity<String> response = new ResponseEntity<>("fresh", HttpStatus.OK);
+        BlockingRequest leader = new BlockingRequest(response, null, release);
+        Thread leaderThread = execute("GET a", leader, new AtomicReference<ResponseEntity<String>>(), null);
+        awaitInFlight(1);
+
+        AtomicReference<ResponseEntity<String>> followerResponse = new AtomicReference<>();
+        BlockingRequest follower = new BlockingRequest(null, null, null);
+        Thread followerThread = execute("GET a", follower, followerResponse, null);
+        awaitCoalesced(1);
+        release.countDown();
+        leaderThread.join(5000);
+        followerThread.join(5000);
+
+        assertSame(response, followerResponse.get());
+        assertEquals(0, follower.sent.get());
+        assertFalse(leader.isShared());
+        assertTrue(follower.isShared());
+        assertEquals(1, coalescer.getSentCount());
+        assertEquals(0, coalescer.getInFlightCount());
+    }
+
+    public void testFollowersReceiveTheLeadersFailure() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ResourceAccessException failure = new ResourceAccessException("Connection refused");
+        Thread leaderThread = execute("GET a", new BlockingRequest(null, failure, release),
+                new AtomicReference<ResponseEntity<String>>(), new AtomicReference<RuntimeException>());
+        awaitInFlight(1);
+
+        AtomicReference<RuntimeException> followerFailure = new AtomicReference<>();
+        Thread followerThread = execute("GET a", new BlockingRequest(null, null, null),
+                new AtomicReference<ResponseEntity<String>>(), followerFailure);
+        awaitCoalesced(1);
+        release.countDown();
+        leaderThread.join(5000);
+        followerThread.join(5000);
+
+        assertSame(failure, followerFailure.get());
+    }
+
+    public void testRequestsWithDifferentKeysAreSentApart() {
+        BlockingRequest first = new BlockingRequest(new ResponseEntity<>("a", HttpStatus.OK), null, null);
+        BlockingRequest second = new BlockingRequest(new ResponseEntity<>("b", HttpStatus.OK), null, null);
+
+        assertEquals("a", coalescer.execute("GET a", first).getBody());
+        assertEquals("b", coalescer.execute("GET b", second).getBody());
+        assertEquals("a", coalescer.execute("GET a", first).getBody());
+
+        assertEquals(2, first.sent.get());
+        assertEquals(3, coalescer.getSentCount());
+        assertEquals(0, coalescer.getCoalescedCount());
+    }
+
+    public void testPostRequestsAreNotCoalescedByDefault() {
+        assertFalse(coalescer.isPostCoalescing());
+    }
+
+    /**
+     * The leader writes the cache after the followers are released: a follower must keep the shared response
+     * instead of reading the older cached one.
+     */
+    public void testFollowerKeepsTheSharedResponseOverAStaleCache() throws Exception {
+        GenericRestCall<Void, String, Void> call = new GenericRestCall<>(Void.class, String.class, Void.class);
+        call.setUrl("http://localhost:1/coalesced/" + System.nanoTime()).setMethodToCall(HttpMethod.GET);
+        call.setCacheTime(1000L);
+        call.setRequestCoalescer(coalescer);
+        writeStaleCache(call.getCachedFileName());
+
+        CountDownLatch release = new CountDownLatch(1);
+        Thread leaderThread = execute(call.getRequestIdentity(HttpMethod.GET, null, null),
+                new BlockingRequest(new ResponseEntity<>("fresh", HttpStatus.OK), null, release),
+                new AtomicReference<ResponseEntity<String>>(), null);
+        awaitInFlight(1);
+
+        Thread followerThread = new Thread(call);
+        followerThread.start();
+        awaitCoalesced(1);
+        release.countDown();
+        leaderThread.join(5000);
+        followerThread.join(5000);
+
+        assertEquals("fresh", call.getJsonResponseEntity());
+    }
+
+    public void testIdentityIncludesTheConditionalHeaders() {
+        GenericRestCall<Void, String, Void> call = new GenericRestCall<>(Void.class, String.class, Void.class);
+        call.setUrl("http://localhost:1/resource");
+        HttpHeaders conditional = new HttpHeaders();
+        conditional.set(HttpHeaders.IF_NONE_MATCH, "\"v1\"");
+
+        assertFalse(call.getRequestIdentity(HttpMethod.GET, null, null)
+                .equals(call.getRequestIdentity(HttpMethod.GET, null, conditional)));
+    }
+
+    public void testIdentityHashesTheAuthorization() {
+        GenericRestCall<Void, String, Void> first = new GenericRestCall<>(Void.class, String.class, Void.class);
+        first.setUrl("http://localhost:1/resource").addHeader("Authorization", "Bearer first-token");
+        GenericRestCall<Void, String, Void> second = new GenericRestCall<>(Void.class, String.class, Void.class);
+        second.setUrl("http://localhost:1/resource").addHeader("Authorization", "Bearer second-token");
+
+        String identity = first.getRequestIdentity(HttpMethod.GET, null, null);
+        assertFalse(identity.contains("first-token"));
+        assertFalse(identity.equals(second.getRequestIdentity(HttpMethod.GET, null, null)));
+    }
+
+    private void writeStaleCache(String fileName) throws IOException {
+        cachedFile = new File(fileName);
+        cachedFile.getParentFile().mkdirs();
+        FileOutputStream out = new FileOutputStream(cachedFile);
+        try {
+            out.write("\"stale\"".getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        cachedFile.setLastModified(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+    }
+
+    private Thread execute(final String key, final BlockingRequest request,
+                           final AtomicReference<ResponseEntity<String>> response,
+                           final AtomicReference<RuntimeException> failure) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    response.set(coalescer.execute(key, request));
+                } catch (RuntimeException e) {
+                    if(failure != null) failure.set(e);
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitInFlight(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(coalescer.getInFlightCount() < count && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(count, coalescer.getInFlightCount());
+    }
+
+    private void awaitCoalesced(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(coalescer.getCoalescedCount() < count && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(count, coalescer.getCoalescedCount());
+    }
+
+    private static final class BlockingRequest extends RequestCoalescer.Request<String> {
+
+        private final ResponseEntity<String> response;
+        private final RuntimeException failure;
+        private final CountDownLatch release;
+        private final AtomicInteger sent = new AtomicInteger();
+
+        BlockingRequest(ResponseEntity<String> response, RuntimeException failure, CountDownLatch release) {
+            this.response = response;
+            this.failure = failure;
+            this.release = release;
+        }
+
+        @Override
+        ResponseEntity<String> send() {
+            sent.incrementAndGet();
+            if(release != null){
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new ResourceAccessException("Interrupted");
+                }
+            }
+            if(failure != null) throw failure;
+            return response;
+        }
+    }
+}
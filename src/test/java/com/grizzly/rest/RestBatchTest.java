@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import junit.framework.TestCase;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RestBatchTest extends TestCase {
+
+    /**
+     * Runs every task in a new thread, ignoring what the task throws.
+     */
+    private final Executor executor = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            Thread thread = new Thread(task);
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                }
+            });
+            thread.start();
+        }
+    };
+
+    public void testKeepsAtMostTheParallelismInFlight() throws Exception {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        List<GenericRestCall<?, ?, ?>> calls = new ArrayList<>();
+        for(int i = 0; i < 8; i++){
+            calls.add(new TestCall() {
+                @Override
+                boolean send() throws Exception {
+                    int current = inFlight.incrementAndGet();
+                    int max;
+                    while(current > (max = maxInFlight.get()) && !maxInFlight.compareAndSet(max, current));
+                    Thread.sleep(5);
+                    inFlight.decrementAndGet();
+                    return true;
+                }
+            });
+        }
+
+        RestBatch batch = new RestBatch(calls, executor);
+        batch.start(3);
+
+        assertTrue(batch.await(5, TimeUnit.SECONDS));
+        assertTrue(maxInFlight.get() <= 3);
+        assertEquals(8, batch.getCompletedCount());
+        assertEquals(0, batch.getFailedCount());
+        for(int i = 0; i < calls.size(); i++){
+            assertSame(calls.get(i), batch.getResults().get(i).getCall());
+            assertTrue(batch.getResults().get(i).isSuccessful());
+        }
+    }
+
+    public void testKeepsTheFailuresApart() throws Exception {
+        final ResourceAccessException failure = new ResourceAccessException("Connection refused");
+        List<GenericRestCall<?, ?, ?>> calls = new ArrayList<>();
+        calls.add(new TestCall());
+        calls.add(new TestCall() {
+            @Override
+            boolean send() {
+                throw failure;
+            }
+        });
+        calls.add(new TestCall() {
+            @Override
+            boolean send() {
+                return false;
+            }
+        });
+
+        RestBatch batch = new RestBatch(calls, executor);
+        batch.start(2);
+
+        assertTrue(batch.await(5, TimeUnit.SECONDS));
+        assertEquals(2, batch.getFailedCount());
+        assertEquals(2, batch.getFailures().size());
+        assertTrue(batch.getResults().get(0).isSuccessful());
+        assertSame(failure, batch.getResults().get(1).getFailure());
+        assertFalse(batch.getResults().get(2).isSuccessful());
+    }
+
+    public void testAnErrorDoesNotStopTheBatch() throws Exception {
+        final AssertionError error = new AssertionError("broken call");
+        List<GenericRestCall<?, ?, ?>> calls = new ArrayList<>();
+        calls.add(new TestCall() {
+            @Override
+            boolean send() {
+                throw error;
+            }
+        });
+        calls.add(new TestCall());
+        calls.add(new TestCall());
+
+        RestBatch batch = new RestBatch(calls, executor);
+        batch.start(1);
+
+        assertTrue(batch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, batch.getFailedCount());
+        Exception failure = batch.getResults().get(0).getFailure();
+        assertTrue(failure instanceof ExecutionException);
+        assertSame(error, failure.getCause());
+        assertTrue(batch.getResults().get(2).isSuccessful());
+    }
+
+    public void testCancelFailsTheCallsNotStarted() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        List<GenericRestCall<?, ?, ?>> calls = new ArrayList<>();
+        calls.add(new TestCall() {
+            @Override
+            boolean send() throws Exception {
+                release.await();
+                return true;
+            }
+        });
+        calls.add(new TestCall());
+        calls.add(new TestCall());
+
+        RestBatch batch = new RestBatch(calls, executor);
+        batch.start(1);
+        batch.cancel();
+        release.countDown();
+
+        assertTrue(batch.await(5, TimeUnit.SECONDS));
+        assertTrue(batch.isCancelled());
+        assertTrue(batch.getResults().get(0).isSuccessful());
+        assertTrue(batch.getResults().get(1).getFailure() instanceof CancellationException);
+        assertTrue(batch.getResults().get(2).getFailure() instanceof CancellationException);
+    }
+
+    public void testASaturatedEngineFailsTheCallsItDiscards() throws Exception {
+        RestExecutionEngine engine = new RestExecutionEngine("EasyRest-batch-test");
+        engine.setRejectionPolicy(new ThreadPoolExecutor.DiscardPolicy());
+        assertRejectedBySaturatedEngine(engine);
+    }
+
+    public void testASaturatedEngineDoesNotRunCallsInTheCaller() throws Exception {
+        RestExecutionEngine engine = new RestExecutionEngine("EasyRest-batch-test");
+        engine.setRejectionPolicy(new ThreadPoolExecutor.CallerRunsPolicy());
+        assertRejectedBySaturatedEngine(engine);
+    }
+
+    public void testTheFactoryCapsTheParallelismToTheEngine() throws Exception {
+        WebServiceFactory factory = new WebServiceFactory();
+        factory.setThreadPoolSize(1);
+        factory.setTaskQueueCapacity(1);
+        final Thread caller = Thread.currentThread();
+        final AtomicInteger ranInCaller = new AtomicInteger();
+        List<GenericRestCall<?, ?, ?>> calls = new ArrayList<>();
+        for(int i = 0; i < 20; i++){
+            calls.add(new TestCall() {
+                @Override
+                boolean send() {
+                    if(Thread.currentThread() == caller) ranInCaller.incrementAndGet();
+                    return true;
+                }
+            });
+        }
+
+        try {
+            RestBatch batch = factory.executeAll(calls, 50, 5000);
+
+            assertTrue(batch.isDone());
+            assertEquals(0, batch.getFailedCount());
+            assertEquals(0, ranInCaller.get());
+        } finally {
+            factory.shutdown();
+        }
+    }
+
+    public void testRejectsANonPositiveParallelism() {
+        RestBatch batch = new RestBatch(new ArrayList<GenericRestCall<?, ?, ?>>(), executor);
+        try {
+            batch.start(0);
+            fail("A parallelism of zero was accepted");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertTrue(batch.isDone());
+    }
+
+    /**
+     * Fills the only thread and the only queue slot of the engine, then runs a batch on it: every call must fail
+     * with a RejectedExecutionException, without running, and the batch must finish.
+     */
+    private void assertRejectedBySaturatedEngine(RestExecutionEngine engine) throws Exception {
+        engine.setPoolSize(1);
+        engine.setQueueCapacity(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        engine.execute(blocker);
+        engine.execute(blocker);
+
+        final AtomicInteger sent = new AtomicInteger();
+        List<GenericRestCall<?, ?, ?>> calls = new ArrayList<>();
+        for(int i = 0; i < 3; i++){
+            calls.add(new TestCall() {
+                @Override
+                boolean send() {
+                    sent.incrementAndGet();
+                    return true;
+                }
+            });
+        }
+
+        try {
+            RestBatch batch = new RestBatch(calls, engine.getRejectingExecutor());
+            batch.start(2);
+
+            assertTrue(batch.await(5, TimeUnit.SECONDS));
+            assertEquals(0, sent.get());
+            assertEquals(3, batch.getFailedCount());
+            for(RestBatch.Result result : batch.getResults()){
+                assertTrue(result.getFailure() instanceof RejectedExecutionException);
+            }
+        } finally {
+            release.countDown();
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * A call which doesn't touch the network: get() runs send() instead.
+     */
+    private static class TestCall extends GenericRestCall<Void, String, Void> {
+
+        TestCall() {
+            super(Void.class, String.class, Void.class);
+        }
+
+        boolean send() throws Exception {
+            return true;
+        }
+
+        @Override
+        public boolean get() {
+            try {
+                return send();
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
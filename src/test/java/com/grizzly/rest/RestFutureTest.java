@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.grizzly.rest.Model.RestResponse;
+import com.grizzly.rest.Model.commonTasks;
+import junit.framework.TestCase;
+import org.springframework.http.HttpStatus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RestFutureTest extends TestCase {
+
+    private final Executor newThread = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            new Thread(task).start();
+        }
+    };
+
+    private final Executor direct = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    public void testATimedOutRunSkipsItsCallbacks() throws Exception {
+        TestCall call = new TestCall();
+        call.delay = 200;
+        RestFuture<RestResponse<String, Void>> future = (RestFuture<RestResponse<String, Void>>) call.executeAsync(newThread);
+        future.setTimeout(20, TimeUnit.MILLISECONDS);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("the future should have timed out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        assertTrue(call.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(0, call.callbacks.get());
+    }
+
+    public void testACancelledRunDoesNotAffectTheNextOnes() throws Exception {
+        TestCall call = new TestCall();
+        call.delay = 200;
+        RestFuture<RestResponse<String, Void>> future = (RestFuture<RestResponse<String, Void>>) call.executeAsync(newThread);
+        future.setTimeout(20, TimeUnit.MILLISECONDS);
+        assertTrue(call.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(0, call.callbacks.get());
+
+        call.delay = 0;
+        call.finished = new CountDownLatch(1);
+        assertTrue(call.executeAsync(newThread).get(5, TimeUnit.SECONDS).isSuccessful());
+        assertEquals(1, call.callbacks.get());
+
+        call.get();
+        assertEquals(2, call.callbacks.get());
+    }
+
+    public void testARunRestoresTheHandleOfTheCaller() throws Exception {
+        AbortableRequestFactory.Handle handle = new AbortableRequestFactory.Handle();
+        AbortableRequestFactory.setCurrentHandle(handle);
+        try {
+            assertTrue(new TestCall().executeAsync(direct).get().isSuccessful());
+            assertSame(handle, AbortableRequestFactory.getCurrentHandle());
+        } finally {
+            AbortableRequestFactory.setCurrentHandle(null);
+        }
+    }
+
+    public void testAFullEngineFailsTheFutureInsteadOfBlocking() throws Exception {
+        RestExecutionEngine engine = new RestExecutionEngine("EasyRest-future-test");
+        engine.setPoolSize(1);
+        engine.setQueueCapacity(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        try {
+            engine.execute(blocker);
+            engine.execute(blocker);
+            TestCall call = new TestCall();
+
+            try {
+                call.executeAsync(engine).get(5, TimeUnit.SECONDS);
+                fail("the engine should have rejected the call");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            assertEquals(1, call.finished.getCount());
+        } finally {
+            release.countDown();
+            engine.shutdown();
+        }
+    }
+
+    private static class TestCall extends GenericRestCall<Void, String, Void> {
+
+        final AtomicInteger callbacks = new AtomicInteger();
+        volatile long delay;
+        volatile CountDownLatch finished = new CountDownLatch(1);
+
+        TestCall() {
+            super(Void.class, String.class, Void.class);
+            isCacheEnabled(false);
+            setCommonTasks(new commonTasks() {
+                @Override
+                public void performCommonTask(boolean result, HttpStatus statusCode) {
+                    callbacks.incrementAndGet();
+                }
+            });
+        }
+
+        @Override
+        public boolean get() {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            onPostExecute(true);
+            finished.countDown();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.TestCase;
+import org.apache.http.client.methods.HttpGet;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+import rx.Subscriber;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RestStreamTest extends TestCase {
+
+    private AbortableGet request;
+    private AbortableRequestFactory.Handle handle;
+
+    @Override
+    protected void setUp() throws Exception {
+        request = new AbortableGet();
+        handle = new AbortableRequestFactory.Handle();
+        handle.attach(request);
+    }
+
+    public void testReadingToTheEndDoesNotAbortTheRequest() throws Exception {
+        FeedResponse response = new FeedResponse(3, false);
+        RestStream<Map> stream = createStream(response);
+
+        int count = 0;
+        while(stream.hasNext()){
+            stream.next();
+            count++;
+        }
+
+        assertEquals(3, count);
+        assertTrue(response.closed.await(5, TimeUnit.SECONDS));
+        assertFalse(request.aborted);
+    }
+
+    public void testClosingBeforeTheEndDropsTheConnection() throws Exception {
+        FeedResponse response = new FeedResponse(3, true);
+        RestStream<Map> stream = createStream(response);
+        stream.next();
+        stream.next();
+
+        stream.close();
+
+        assertTrue(request.aborted);
+        assertTrue(response.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(response.abortedBeforeClose);
+        assertFalse(stream.hasNext());
+    }
+
+    public void testUnsubscribingStopsTheEmittingThread() throws Exception {
+        final FeedResponse response = new FeedResponse(3, true);
+        final RestStream<Map> stream = createStream(response);
+        final TestSubscriber subscriber = new TestSubscriber();
+
+        Thread emitter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                subscriber.setProducer(stream.createProducer(subscriber));
+            }
+        });
+        emitter.start();
+        assertTrue(subscriber.received.await(5, TimeUnit.SECONDS));
+        // the emitting thread is now blocked reading the endless response
+        subscriber.unsubscribe();
+        emitter.join(5000);
+
+        assertFalse(emitter.isAlive());
+        assertTrue(request.aborted);
+        assertTrue(response.closed.await(5, TimeUnit.SECONDS));
+        assertSame(emitter, response.closingThread);
+        assertNull(subscriber.error.get());
+        assertEquals(0, subscriber.completed.get());
+    }
+
+    public void testUnsubscribingAnIdleStreamClosesIt() throws Exception {
+        FeedResponse response = new FeedResponse(3, true);
+        RestStream<Map> stream = createStream(response);
+        TestSubscriber subscriber = new TestSubscriber();
+        subscriber.requestElements(2);
+        subscriber.setProducer(stream.createProducer(subscriber));
+        assertEquals(2, subscriber.count.get());
+
+        subscriber.unsubscribe();
+
+        assertTrue(request.aborted);
+        assertTrue(response.closed.await(5, TimeUnit.SECONDS));
+        assertSame(Thread.currentThread(), response.closingThread);
+        assertEquals(2, subscriber.count.get());
+    }
+
+    private RestStream<Map> createStream(FeedResponse response) throws IOException {
+        return new RestStream<>(response, new ObjectMapper().readerFor(Map.class), null, handle);
+    }
+
+    private static class AbortableGet extends HttpGet {
+
+        volatile boolean aborted = false;
+        final CountDownLatch abort = new CountDownLatch(1);
+
+        @Override
+        public void abort() {
+            aborted = true;
+            abort.countDown();
+            super.abort();
+        }
+    }
+
+    /**
+     * Newline delimited JSON elements. An endless response blocks after its elements, as a feed waiting for the
+     * next one, until the request is aborted.
+     */
+    private class FeedResponse implements ClientHttpResponse {
+
+        final CountDownLatch closed = new CountDownLatch(1);
+        volatile Thread closingThread;
+        volatile boolean abortedBeforeClose;
+        private final InputStream body;
+
+        FeedResponse(final int elements, final boolean endless) {
+            body = new InputStream() {
+                private final byte[] element = "{\"id\":1}\n".getBytes(StandardCharsets.UTF_8);
+                private int position = 0;
+
+                @Override
+                public int read() throws IOException {
+                    if(request.aborted) throw new IOException("Request aborted");
+                    if(position < elements * element.length){
+                        return element[position++ % element.length];
+                    }
+                    if(!endless) return -1;
+                    try {
+                        request.abort.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    throw new IOException("Request aborted");
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    // as a socket, returns what is available instead of waiting to fill the buffer
+                    int available = elements * element.length - position;
+                    if(length == 0) return 0;
+                    if(available <= 0 || request.aborted){
+                        int b = read();
+                        if(b < 0) return -1;
+                        buffer[offset] = (byte) b;
+                        return 1;
+                    }
+                    int count = Math.min(length, available);
+                    for(int i = 0; i < count; i++){
+                        buffer[offset + i] = element[position++ % element.length];
+                    }
+                    return count;
+                }
+            };
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return new HttpHeaders();
+        }
+
+        @Override
+        public HttpStatus getStatusCode() {
+            return HttpStatus.OK;
+        }
+
+        @Override
+        public int getRawStatusCode() {
+            return 200;
+        }
+
+        @Override
+        public String getStatusText() {
+            return "OK";
+        }
+
+        @Override
+        public void close() {
+            abortedBeforeClose = request.aborted;
+            closingThread = Thread.currentThread();
+            closed.countDown();
+        }
+    }
+
+    private static class TestSubscriber extends Subscriber<Map> {
+
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch received = new CountDownLatch(3);
+
+        void requestElements(long n) {
+            request(n);
+        }
+
+        @Override
+        public void onNext(Map element) {
+            count.incrementAndGet();
+            received.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            completed.incrementAndGet();
+        }
+
+        @Override
+        public void onError(Throwable e) {
+            error.set(e);
+        }
+    }
+}
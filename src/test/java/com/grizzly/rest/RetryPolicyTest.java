@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014. Francisco Pardo Baeza
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package com.grizzly.rest;
+
+import com.grizzly.rest.Exceptions.CircuitBreakerOpenException;
+import junit.framework.TestCase;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class RetryPolicyTest extends TestCase {
+
+    private static final String HOST = "https://api.example.com:443";
+
+    private RetryPolicy policy;
+
+    @Override
+    protected void setUp() throws Exception {
+        policy = new RetryPolicy();
+    }
+
+    public void testOnlyIdempotentRequestsAreRetried() {
+        assertTrue(policy.isRetryable(HttpMethod.GET, new HttpHeaders()));
+        assertTrue(policy.isRetryable(HttpMethod.PUT, new HttpHeaders()));
+        assertFalse(policy.isRetryable(HttpMethod.POST, new HttpHeaders()));
+        assertFalse(policy.isRetryable(HttpMethod.PATCH, new HttpHeaders()));
+
+        HttpHeaders withKey = new HttpHeaders();
+        withKey.set("Idempotency-Key", "order-42");
+        assertTrue(policy.isRetryable(HttpMethod.POST, withKey));
+
+        policy.setIdempotencyKeyHeader(null);
+        assertFalse(policy.isRetryable(HttpMethod.POST, withKey));
+    }
+
+    public void testRetryableFailures() {
+        assertTrue(policy.isRetryable(new ResourceAccessException("Connection reset")));
+        assertTrue(policy.isRetryable(new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE)));
+        assertTrue(policy.isRetryable(new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS)));
+        assertFalse(policy.isRetryable(new HttpClientErrorException(HttpStatus.BAD_REQUEST)));
+        assertFalse(policy.isRetryable(new CircuitBreakerOpenException(HOST)));
+    }
+
+    public void testReadsRetryAfterInSeconds() {
+        assertEquals(5000, RetryPolicy.getRetryAfter(retryAfter("5")));
+        assertEquals(0, RetryPolicy.getRetryAfter(retryAfter("-5")));
+    }
+
+    public void testReadsRetryAfterAsAnHttpDate() {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        long retryAfter = RetryPolicy.getRetryAfter(retryAfter(format.format(new Date(System.currentTimeMillis() + 10000))));
+
+        assertTrue("Read " + retryAfter + "ms", retryAfter > 8000 && retryAfter <= 10000);
+        assertEquals(0, RetryPolicy.getRetryAfter(retryAfter(format.format(new Date(System.currentTimeMillis() - 10000)))));
+    }
+
+    public void testIgnoresMissingOrInvalidRetryAfter() {
+        assertEquals(0, RetryPolicy.getRetryAfter(null));
+        assertEquals(0, RetryPolicy.getRetryAfter(new HttpHeaders()));
+        assertEquals(0, RetryPolicy.getRetryAfter(retryAfter("soon")));
+    }
+
+    public void testBackoffIsBoundedByTheMaxDelay() {
+        policy.setBaseDelay(100);
+        policy.setMaxDelay(300);
+        for(int attempt = 1; attempt <= 10; attempt++){
+            long delay = policy.getDelay(attempt, new ResourceAccessException("Connection reset"));
+            assertTrue(delay >= 0 && delay <= 300);
+        }
+    }
+
+    public void testHonorsRetryAfter() {
+        policy.setBaseDelay(0);
+        assertEquals(2000, policy.getDelay(1, unavailable("2")));
+
+        policy.setMaxRetryAfter(30000);
+        assertEquals(-1, policy.getDelay(1, unavailable("120")));
+    }
+
+    public void testRetriesStopWhenTheBudgetIsExhausted() {
+        policy.setRetryBudget(0.5, 2);
+
+        assertTrue(policy.tryRetry(HOST));
+        assertTrue(policy.tryRetry(HOST));
+        assertFalse(policy.tryRetry(HOST));
+        assertEquals(2, policy.getRetryCount());
+        assertEquals(1, policy.getBudgetExhaustedCount());
+
+        policy.onFirstAttempt(HOST);
+        assertFalse(policy.tryRetry(HOST));
+        policy.onFirstAttempt(HOST);
+        assertTrue(policy.tryRetry(HOST));
+    }
+
+    public void testEveryHostHasItsOwnBudget() {
+        policy.setRetryBudget(0.1, 1);
+
+        assertTrue(policy.tryRetry(HOST));
+        assertFalse(policy.tryRetry(HOST));
+        assertTrue(policy.tryRetry("https://other.example.com:443"));
+    }
+
+    public void testTheBudgetDoesNotGrowOverItsMaximum() {
+        policy.setRetryBudget(1, 2);
+        for(int i = 0; i < 10; i++){
+            policy.onFirstAttempt(HOST);
+        }
+
+        assertTrue(policy.tryRetry(HOST));
+        assertTrue(policy.tryRetry(HOST));
+        assertFalse(policy.tryRetry(HOST));
+    }
+
+    private static HttpHeaders retryAfter(String value) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("Retry-After", value);
+        return headers;
+    }
+
+    private static HttpServerErrorException unavailable(String retryAfter) {
+        return new HttpServerErrorException(HttpStatus.SERVICE_UNAVAILABLE, "Service Unavailable",
+                retryAfter(retryAfter), new byte[0], Charset.forName("UTF-8"));
+    }
+}